@@ -0,0 +1,169 @@
+package com.example.sf.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic Apex org for benchmarks, deterministic per seed.
+ *
+ * Classes look like typical org code (fields, SOQL, loops, DML, debug statements) and have
+ * roughly the requested number of lines. {@link #changed()} is the same org after a deploy
+ * that edited, inserted and deleted lines in about changeRate of the classes.
+ */
+public final class ApexCorpus {
+
+    private static final String[] TYPES = {"String", "Integer", "Decimal", "Boolean", "Id", "Date", "List<Account>", "Map<Id, Contact>"};
+    private static final String[] OBJECTS = {"Account", "Contact", "Opportunity", "Case", "Lead", "Task"};
+    private static final String[] NOUNS = {"Account", "Order", "Invoice", "Quote", "Case", "Lead", "Payment", "Territory", "Contract", "Asset"};
+    private static final String[] ROLES = {"Service", "Handler", "Selector", "Controller", "Batch", "Helper", "Trigger", "Queueable"};
+
+    private final Map<String, String> baseline;
+    private final Map<String, String> changed;
+
+    private ApexCorpus(Map<String, String> baseline, Map<String, String> changed) {
+        this.baseline = baseline;
+        this.changed = changed;
+    }
+
+    public static ApexCorpus generate(int classCount, int linesPerClass, double changeRate, long seed) {
+        Random random = new Random(seed);
+        Map<String, String> baseline = new LinkedHashMap<>();
+        Map<String, String> changed = new LinkedHashMap<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = NOUNS[random.nextInt(NOUNS.length)] + ROLES[random.nextInt(ROLES.length)] + i;
+            String source = classSource(name, linesPerClass, random);
+            baseline.put(name, source);
+            changed.put(name, random.nextDouble() < changeRate ? edit(source, random) : source);
+        }
+        return new ApexCorpus(baseline, changed);
+    }
+
+    /** Class name to source before the deploy. */
+    public Map<String, String> baseline() {
+        return baseline;
+    }
+
+    /** Class name to source after the deploy. */
+    public Map<String, String> changed() {
+        return changed;
+    }
+
+    /** A retrieve ZIP as the Metadata API returns it: unpackaged/package.xml plus classes and their -meta.xml. */
+    public static byte[] zip(Map<String, String> classes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, "unpackaged/package.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Package xmlns=\"http://soap.sforce.com/2006/04/metadata\"><types><members>*</members>"
+                + "<name>ApexClass</name></types><version>59.0</version></Package>\n");
+            for (Map.Entry<String, String> e : classes.entrySet()) {
+                put(zip, "unpackaged/classes/" + e.getKey() + ".cls", e.getValue());
+                put(zip, "unpackaged/classes/" + e.getKey() + ".cls-meta.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<ApexClass xmlns=\"http://soap.sforce.com/2006/04/metadata\"><apiVersion>59.0</apiVersion>"
+                    + "<status>Active</status></ApexClass>\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** A completed checkRetrieveStatus SOAP response carrying zip as base64. */
+    public static String checkRetrieveStatusResponse(byte[] zip) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns=\"http://soap.sforce.com/2006/04/metadata\"><soapenv:Body><checkRetrieveStatusResponse><result>"
+            + "<done>true</done><id>09S000000000001AAA</id><status>Succeeded</status><success>true</success>"
+            + "<zipFile>" + Base64.getEncoder().encodeToString(zip) + "</zipFile>"
+            + "</result></checkRetrieveStatusResponse></soapenv:Body></soapenv:Envelope>";
+    }
+
+    /** A listMetadata SOAP response with one ApexClass entry per class of the org. */
+    public static String listMetadataResponse(int entries, long seed) {
+        Random random = new Random(seed);
+        StringBuilder xml = new StringBuilder(entries * 700);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"")
+            .append(" xmlns=\"http://soap.sforce.com/2006/04/metadata\"><soapenv:Body><listMetadataResponse>");
+        for (int i = 0; i < entries; i++) {
+            String name = NOUNS[random.nextInt(NOUNS.length)] + ROLES[random.nextInt(ROLES.length)] + i;
+            boolean managed = random.nextInt(10) == 0;
+            String user = "005" + String.format("%012d", random.nextInt(20)) + "AAA";
+            xml.append("<result>")
+                .append("<createdById>").append(user).append("</createdById>")
+                .append("<createdByName>User ").append(user.substring(12, 15)).append("</createdByName>")
+                .append("<createdDate>2024-0").append(1 + random.nextInt(9)).append("-1").append(random.nextInt(10)).append("T10:15:30.000Z</createdDate>")
+                .append("<fileName>classes/").append(name).append(".cls</fileName>")
+                .append("<fullName>").append(managed ? "pkg__" : "").append(name).append("</fullName>")
+                .append("<id>01p").append(String.format("%012d", i)).append("AAA</id>")
+                .append("<lastModifiedById>").append(user).append("</lastModifiedById>")
+                .append("<lastModifiedByName>User ").append(user.substring(12, 15)).append("</lastModifiedByName>")
+                .append("<lastModifiedDate>2025-1").append(random.nextInt(3)).append("-0").append(1 + random.nextInt(9)).append("T08:00:00.000Z</lastModifiedDate>")
+                .append("<manageableState>").append(managed ? "installed" : "unmanaged").append("</manageableState>");
+            if (managed) xml.append("<namespacePrefix>pkg</namespacePrefix>");
+            xml.append("<type>ApexClass</type></result>");
+        }
+        xml.append("</listMetadataResponse></soapenv:Body></soapenv:Envelope>");
+        return xml.toString();
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String classSource(String name, int lines, Random random) {
+        StringBuilder src = new StringBuilder(lines * 48);
+        src.append("/**\n * ").append(name).append(" - generated for benchmarks.\n */\n");
+        src.append("public with sharing class ").append(name).append(" {\n");
+        int fields = 3 + random.nextInt(6);
+        for (int f = 0; f < fields; f++) {
+            src.append("    private ").append(TYPES[random.nextInt(TYPES.length)]).append(" field").append(f).append(";\n");
+        }
+        int written = 6 + fields;
+        int method = 0;
+        while (written < lines - 1) {
+            String object = OBJECTS[random.nextInt(OBJECTS.length)];
+            src.append("\n    public List<").append(object).append("> process").append(method++).append("(Set<Id> ids) {\n")
+                .append("        List<").append(object).append("> records = [SELECT Id, Name FROM ").append(object)
+                .append(" WHERE Id IN :ids LIMIT ").append(100 + random.nextInt(900)).append("];\n")
+                .append("        for (").append(object).append(" record : records) {\n")
+                .append("            if (record.Name != null && record.Name.length() > ").append(random.nextInt(40)).append(") {\n")
+                .append("                record.Name = record.Name.abbreviate(").append(20 + random.nextInt(60)).append(");\n")
+                .append("            }\n")
+                .append("            System.debug(LoggingLevel.FINE, 'Processed ' + record.Id);\n")
+                .append("        }\n")
+                .append("        update records;\n")
+                .append("        return records;\n")
+                .append("    }\n");
+            written += 12;
+        }
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /** Change a few lines, insert a few and delete a few. */
+    private static String edit(String source, Random random) {
+        String[] lines = source.split("\n", -1);
+        StringBuilder out = new StringBuilder(source.length() + 256);
+        for (String line : lines) {
+            int roll = random.nextInt(100);
+            if (roll < 3 && line.contains("LIMIT")) {
+                out.append(line.replaceAll("LIMIT \\d+", "LIMIT " + (100 + random.nextInt(900)))).append('\n');
+            } else if (roll == 3) {
+                out.append(line).append('\n').append("        // reviewed in release ").append(random.nextInt(100)).append('\n');
+            } else if (roll == 4 && line.contains("System.debug")) {
+                continue;
+            } else {
+                out.append(line).append('\n');
+            }
+        }
+        return out.substring(0, out.length() - 1);
+    }
+}
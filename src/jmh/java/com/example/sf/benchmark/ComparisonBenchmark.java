@@ -0,0 +1,80 @@
+package com.example.sf.benchmark;
+
+import com.example.sf.model.ComparisonResult;
+import com.example.sf.service.ApexComparisonService;
+import com.example.sf.service.ApexSnapshotStore;
+import com.example.sf.service.PipelineMetrics;
+import com.example.sf.service.RetrievePayload;
+import com.example.sf.service.ZipExtractionPipeline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ApexComparisonService against a stored org: a cold compareFile (read, diff, build the result),
+ * the cached JSON of one class, and the whole-org compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComparisonBenchmark {
+
+    @Param({"500"})
+    public int classes;
+
+    @Param({"150"})
+    public int linesPerClass;
+
+    @Param({"0.2"})
+    public double changeRate;
+
+    private Path root;
+    private ApexSnapshotStore store;
+    private ApexComparisonService comparisons;
+    private String changedClass;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ApexCorpus corpus = ApexCorpus.generate(classes, linesPerClass, changeRate, 42);
+        changedClass = corpus.baseline().keySet().stream()
+            .filter(name -> !corpus.baseline().get(name).equals(corpus.changed().get(name)))
+            .findFirst().orElseThrow();
+
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        root = Files.createTempDirectory("sf-bench-compare");
+        store = new ApexSnapshotStore(root.toString(), "directory", 4, new ZipExtractionPipeline(4, 64, metrics));
+        store.save(RetrievePayload.ofBytes(ApexCorpus.zip(corpus.baseline())));
+        store.save(RetrievePayload.ofBytes(ApexCorpus.zip(corpus.changed())));
+        comparisons = new ApexComparisonService(new ObjectMapper(), metrics, 100, 1000, 500, 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        comparisons.close();
+        store.close();
+        ExtractionBenchmark.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public ComparisonResult compareFile() throws Exception {
+        return comparisons.compareFile(store, changedClass);
+    }
+
+    @Benchmark
+    public byte[] compareFileJsonCached() throws Exception {
+        return comparisons.compareFileJson(store, changedClass);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] compareAllJsonCached() throws Exception {
+        return comparisons.compareAllJson(store);
+    }
+}
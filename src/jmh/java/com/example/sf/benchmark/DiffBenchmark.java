@@ -0,0 +1,57 @@
+package com.example.sf.benchmark;
+
+import com.example.sf.util.ApexDiffUtil;
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.Patch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory normalization and diffing of one edited class, without file I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffBenchmark {
+
+    @Param({"200", "2000"})
+    public int linesPerClass;
+
+    private String oldSource;
+    private String newSource;
+    private List<String> oldLines;
+    private List<String> newLines;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // A change rate of 1 edits every class; take the first one
+        ApexCorpus corpus = ApexCorpus.generate(1, linesPerClass, 1.0, 42);
+        String name = corpus.baseline().keySet().iterator().next();
+        oldSource = corpus.baseline().get(name);
+        newSource = corpus.changed().get(name);
+        oldLines = Arrays.asList(oldSource.split("\n"));
+        newLines = Arrays.asList(newSource.split("\n"));
+    }
+
+    @Benchmark
+    public String normalize() {
+        return ApexDiffUtil.normalizeApex(newSource);
+    }
+
+    @Benchmark
+    public List<String> apexDiffUtil() {
+        return ApexDiffUtil.getDiffLines(oldSource, newSource);
+    }
+
+    /** The Myers diff ApexComparisonService runs on the lines of a class and its previous version. */
+    @Benchmark
+    public Patch<String> myersDiff() {
+        return DiffUtils.diff(oldLines, newLines);
+    }
+}
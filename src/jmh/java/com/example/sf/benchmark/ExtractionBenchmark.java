@@ -0,0 +1,82 @@
+package com.example.sf.benchmark;
+
+import com.example.sf.model.ExtractionResult;
+import com.example.sf.service.ApexSnapshotStore;
+import com.example.sf.service.PipelineMetrics;
+import com.example.sf.service.RetrievePayload;
+import com.example.sf.service.ZipExtractionPipeline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Storing a retrieve ZIP as a new snapshot generation (what extractCls and every sync do):
+ * extraction, archiving of changed classes and publishing. Saves alternate between the org
+ * before and after a deploy, so every save sees changeRate of the classes change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({"500", "2000"})
+    public int classes;
+
+    @Param({"150"})
+    public int linesPerClass;
+
+    @Param({"0.05"})
+    public double changeRate;
+
+    @Param({"directory", "zip"})
+    public String snapshotMode;
+
+    private Path root;
+    private ApexSnapshotStore store;
+    private byte[] baselineZip;
+    private byte[] changedZip;
+    private boolean changedNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ApexCorpus corpus = ApexCorpus.generate(classes, linesPerClass, changeRate, 42);
+        baselineZip = ApexCorpus.zip(corpus.baseline());
+        changedZip = ApexCorpus.zip(corpus.changed());
+        root = Files.createTempDirectory("sf-bench-extract");
+        store = new ApexSnapshotStore(root.toString(), snapshotMode, 4, new ZipExtractionPipeline(4, 64,
+            new PipelineMetrics(new SimpleMeterRegistry())));
+        store.save(RetrievePayload.ofBytes(baselineZip));
+        changedNext = true;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        deleteRecursively(root);
+    }
+
+    @Benchmark
+    public ExtractionResult saveRetrieve() throws Exception {
+        byte[] zip = changedNext ? changedZip : baselineZip;
+        changedNext = !changedNext;
+        return store.save(RetrievePayload.ofBytes(zip));
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
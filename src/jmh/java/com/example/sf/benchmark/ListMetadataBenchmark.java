@@ -0,0 +1,38 @@
+package com.example.sf.benchmark;
+
+import com.example.sf.model.ApexFileProperties;
+import com.example.sf.util.ListMetadataParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming parse of listMetadata responses, up to the 10k-class orgs the class listing cache
+ * was sized for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListMetadataBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        response = ApexCorpus.listMetadataResponse(entries, 42).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<ApexFileProperties> parse() throws Exception {
+        return ListMetadataParser.parse(new ByteArrayInputStream(response));
+    }
+}
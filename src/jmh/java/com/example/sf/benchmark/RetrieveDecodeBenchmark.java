@@ -0,0 +1,71 @@
+package com.example.sf.benchmark;
+
+import com.example.sf.util.XmlStreamUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the retrieve ZIP out of a completed checkRetrieveStatus response, both ways
+ * SalesforceApexService does it: tag extraction plus Base64 decode of a response held as a
+ * String, and the streaming tag scan plus MIME decoder used for spilled responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrieveDecodeBenchmark {
+
+    @Param({"500", "2000"})
+    public int classes;
+
+    @Param({"150"})
+    public int linesPerClass;
+
+    private String response;
+    private byte[] responseBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ApexCorpus corpus = ApexCorpus.generate(classes, linesPerClass, 0, 42);
+        response = ApexCorpus.checkRetrieveStatusResponse(ApexCorpus.zip(corpus.baseline()));
+        responseBytes = response.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Mirrors readRetrieveStatus: indexOf-based tag extraction, then a one-shot decode. */
+    @Benchmark
+    public byte[] inMemory() {
+        if (!"true".equals(extractTag(response, "done"))) throw new IllegalStateException("not done");
+        return Base64.getDecoder().decode(extractTag(response, "zipFile"));
+    }
+
+    /** Mirrors readSpilledRetrieveStatus, decoding to a sink instead of a temp file. */
+    @Benchmark
+    public long streaming() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(responseBytes)) {
+            if (!XmlStreamUtil.seekPast(in, "<done>true</done>")) throw new IllegalStateException("not done");
+        }
+        try (InputStream in = new ByteArrayInputStream(responseBytes)) {
+            if (!XmlStreamUtil.seekPast(in, "<zipFile>")) throw new IllegalStateException("no zipFile");
+            try (InputStream decoded = Base64.getMimeDecoder().wrap(XmlStreamUtil.elementText(in))) {
+                return decoded.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+    }
+
+    private static String extractTag(String xml, String tag) {
+        int s = xml.indexOf("<" + tag + ">");
+        if (s < 0) return null;
+        int e = xml.indexOf("</" + tag + ">", s);
+        if (e < 0) return null;
+        return xml.substring(s + tag.length() + 2, e);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.sf.loadtest;
+
+import com.example.sf.SfApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.CookieManager;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Drives the application end to end against {@link MetadataApiSimulator}: starts the simulated
+ * org, boots the app in this JVM pointed at it, connects through the real OAuth redirect flow,
+ * then runs concurrent users over the retrieve and compare endpoints for a fixed duration.
+ *
+ * Reports p50/p90/p99/max latency, throughput and errors per endpoint, plus the peak heap of
+ * the JVM (app, simulator and harness together) sampled during the run.
+ *
+ *   mvn -Pbenchmarks test-compile exec:exec@load-test -Dloadtest.args="users=32 duration-s=120 classes=5000"
+ *
+ * Options (name=value, optionally prefixed with --): users, duration-s, warmup-s, plus the
+ * simulator settings in {@link MetadataApiSimulator.Config}. Any option with a dot in its name
+ * is passed to the app as a property, e.g. salesforce.retrieve.freshness-window-ms=0.
+ */
+public final class LoadHarness {
+
+    /** Operation mix, by weight: retrieves are rare, compares are what users mostly do. */
+    private static final String[][] MIX = {
+        {"retrieve-and-poll", "2"},
+        {"compare-files", "10"},
+        {"compare-summary", "20"},
+        {"compare/{class}", "40"},
+        {"compare-query", "18"},
+        {"compare-batch", "10"},
+    };
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final HttpClient client;
+    private final String appUrl;
+    private final List<String> classNames;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+    /** Latencies and failures of one operation; recorded by all users. */
+    private static final class Stats {
+        private long[] nanos = new long[1024];
+        private int count;
+        private final AtomicLong errors = new AtomicLong();
+
+        synchronized void record(long elapsed) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = elapsed;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(nanos, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private LoadHarness(HttpClient client, String appUrl, List<String> classNames) {
+        this.client = client;
+        this.appUrl = appUrl;
+        this.classNames = classNames;
+        for (String[] op : MIX) stats.put(op[0], new Stats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        int users = Integer.parseInt(options.getOrDefault("users", "8"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration-s", "60"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup-s", "10"));
+
+        Path storage = Files.createTempDirectory("sf-loadtest");
+        try (MetadataApiSimulator simulator = MetadataApiSimulator.start(MetadataApiSimulator.Config.fromArgs(options))) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            String appUrl = "http://localhost:" + port;
+            Map<String, Object> properties = new LinkedHashMap<>();
+            properties.put("server.port", port);
+            properties.put("salesforce.clientId", "loadtest");
+            properties.put("salesforce.clientSecret", "loadtest");
+            properties.put("salesforce.username", "load@sim.example");
+            properties.put("salesforce.password", "loadtest");
+            properties.put("salesforce.authUrl", simulator.url() + "/services/oauth2/authorize");
+            properties.put("salesforce.tokenUrl", simulator.url() + "/services/oauth2/token");
+            properties.put("salesforce.redirectUri", appUrl + "/callback");
+            properties.put("storage.apex.path", storage.resolve("apex").toString());
+            properties.put("storage.apex.retrieve.spill-dir", storage.toString());
+            properties.put("logging.level.root", "WARN");
+            // Every retrieve reaches the simulated org unless it joins one already in flight
+            properties.put("salesforce.retrieve.freshness-window-ms", 0);
+            options.forEach((key, value) -> {
+                if (key.contains(".")) properties.put(key, value);
+            });
+
+            // As command-line arguments, so they override application.properties
+            String[] appArgs = properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+            try (ConfigurableApplicationContext app = new SpringApplicationBuilder(SfApplication.class).run(appArgs)) {
+                HttpClient client = HttpClient.newBuilder()
+                    .cookieHandler(new CookieManager())
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+                LoadHarness harness = new LoadHarness(client, appUrl, new ArrayList<>(simulator.corpus().baseline().keySet()));
+                harness.connect();
+                // Two syncs, so there is a previous version of every changed class to compare against
+                harness.call("retrieve-and-poll");
+                harness.call("retrieve-and-poll");
+
+                System.out.printf("Warming up %d users for %ds%n", users, warmupSeconds);
+                harness.run(users, warmupSeconds);
+                harness.stats.replaceAll((op, s) -> new Stats());
+
+                System.out.printf("Running %d users for %ds against %d classes%n", users, durationSeconds,
+                    simulator.corpus().baseline().size());
+                HeapSampler heap = new HeapSampler();
+                heap.start();
+                long gcBefore = gcMillis();
+                long elapsed = harness.run(users, durationSeconds);
+                heap.interrupt();
+                heap.join();
+
+                harness.report(elapsed);
+                System.out.printf("%nPeak heap used: %d MB (app, simulator and harness), GC time: %d ms%n",
+                    heap.peak / (1024 * 1024), gcMillis() - gcBefore);
+                System.out.println("Simulator: " + simulator.stats());
+            }
+        } finally {
+            try (Stream<Path> walk = Files.walk(storage)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /** OAuth through the simulator: /connect redirects to authorize, which redirects to /callback. */
+    private void connect() throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(appUrl + "/connect")).build(),
+            HttpResponse.BodyHandlers.ofString());
+        if (!response.body().contains("\"connected\":true")) {
+            throw new IllegalStateException("OAuth against the simulator failed: " + response.body());
+        }
+    }
+
+    /** Runs users until the deadline; returns the elapsed nanos. */
+    private long run(int users, long seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + Duration.ofSeconds(seconds).toNanos();
+        int totalWeight = Stream.of(MIX).mapToInt(op -> Integer.parseInt(op[1])).sum();
+        CountDownLatch done = new CountDownLatch(users);
+        for (int u = 0; u < users; u++) {
+            Thread user = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+                        for (String[] op : MIX) {
+                            pick -= Integer.parseInt(op[1]);
+                            if (pick < 0) {
+                                call(op[0]);
+                                break;
+                            }
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-user-" + u);
+            user.setDaemon(true);
+            user.start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    private void call(String op) {
+        HttpRequest.Builder request;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (op) {
+            case "compare/{class}" -> request = get("/apex/compare/" + classNames.get(random.nextInt(classNames.size())));
+            case "compare-query" -> request = get("/apex/compare-query?status=CHANGES_FOUND&limit=50");
+            case "compare-batch" -> {
+                String body = random.ints(20, 0, classNames.size())
+                    .mapToObj(i -> "\"" + classNames.get(i) + "\"")
+                    .collect(Collectors.joining(",", "[", "]"));
+                request = HttpRequest.newBuilder(URI.create(appUrl + "/apex/compare-batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body));
+            }
+            default -> request = get("/apex/" + op);
+        }
+        Stats s = stats.get(op);
+        long start = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = client.send(request.timeout(Duration.ofMinutes(5)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+            s.record(System.nanoTime() - start);
+            if (response.statusCode() >= 400 || isErrorBody(response)) {
+                s.errors.incrementAndGet();
+            }
+        } catch (Exception e) {
+            s.record(System.nanoTime() - start);
+            s.errors.incrementAndGet();
+        }
+    }
+
+    /** Failures come back as 200 with an "error" field. */
+    private static boolean isErrorBody(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.body();
+        if (body.length == 0) return false;
+        if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            }
+        }
+        return JSON.readTree(body).has("error");
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(URI.create(appUrl + path)).header("Accept-Encoding", "gzip");
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n%-20s %8s %7s %9s %9s %9s %9s %9s%n", "operation", "count", "errors", "req/s",
+            "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long total = 0;
+        long errors = 0;
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            long[] sorted = e.getValue().sorted();
+            total += sorted.length;
+            errors += e.getValue().errors.get();
+            System.out.printf("%-20s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", e.getKey(), sorted.length,
+                e.getValue().errors.get(), sorted.length / seconds, percentile(sorted, 50), percentile(sorted, 90),
+                percentile(sorted, 99), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        }
+        System.out.printf("%-20s %8d %7d %9.1f%n", "total", total, errors, total / seconds);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    /** Samples used heap every 50 ms and keeps the highest value seen. */
+    private static final class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** name=value (or --name=value) options; a single argument may hold several, separated by whitespace. */
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            for (String option : arg.trim().split("\\s+")) {
+                if (option.startsWith("--")) option = option.substring(2);
+                int eq = option.indexOf('=');
+                if (eq > 0) options.put(option.substring(0, eq), option.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+}
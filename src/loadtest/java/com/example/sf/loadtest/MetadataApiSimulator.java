@@ -0,0 +1,306 @@
+package com.example.sf.loadtest;
+
+import com.example.sf.benchmark.ApexCorpus;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for a Salesforce org, speaking the calls this project makes:
+ *
+ *   OAuth      GET  /services/oauth2/authorize, POST /services/oauth2/token, GET /services/oauth2/userinfo
+ *   REST       GET  /services/data/v57.0/, POST .../metadata/retrieve, GET .../metadata/retrieveResult
+ *   SOAP       POST /services/Soap/m/{version}: retrieve, checkRetrieveStatus, listMetadata
+ *
+ * The org is synthetic ({@link ApexCorpus}). Successive full retrieves alternate between the
+ * org before and after a deploy, so every sync has changeRate of the classes to archive and
+ * diff. Retrieves stay in progress for retrieveMillis; every response is delayed by latency
+ * plus jitter, and failureRate of the API calls fail with a 500 (a SOAP fault or REST error).
+ * Responses carry Sforce-Limit-Info with a running API usage count.
+ *
+ * Run standalone with: MetadataApiSimulator --port=9090 --classes=2000 --latency-ms=80
+ */
+public final class MetadataApiSimulator implements AutoCloseable {
+
+    private static final Pattern MEMBERS = Pattern.compile("<(?:\\w+:)?members>([^<]*)</(?:\\w+:)?members>");
+    private static final Pattern ASYNC_ID = Pattern.compile("<(?:\\w+:)?(?:asyncProcessId|id)>([^<]*)</");
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String[] fullZipBase64 = new String[2];
+    private final ApexCorpus corpus;
+    private final String listMetadataResponse;
+    private final Map<String, Retrieve> retrieves = new ConcurrentHashMap<>();
+    private final AtomicInteger fullRetrieves = new AtomicInteger();
+    private final AtomicLong retrieveSeq = new AtomicLong();
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /** Settings of the simulated org; every field has a usable default. */
+    public static final class Config {
+        public int port = 0;
+        public int classes = 1000;
+        public int linesPerClass = 150;
+        public double changeRate = 0.05;
+        public long latencyMillis = 50;
+        public long jitterMillis = 50;
+        public double failureRate = 0;
+        public long retrieveMillis = 2000;
+        public long apiMax = 1_000_000;
+
+        public static Config fromArgs(Map<String, String> args) {
+            Config c = new Config();
+            c.port = Integer.parseInt(args.getOrDefault("port", String.valueOf(c.port)));
+            c.classes = Integer.parseInt(args.getOrDefault("classes", String.valueOf(c.classes)));
+            c.linesPerClass = Integer.parseInt(args.getOrDefault("lines", String.valueOf(c.linesPerClass)));
+            c.changeRate = Double.parseDouble(args.getOrDefault("change-rate", String.valueOf(c.changeRate)));
+            c.latencyMillis = Long.parseLong(args.getOrDefault("latency-ms", String.valueOf(c.latencyMillis)));
+            c.jitterMillis = Long.parseLong(args.getOrDefault("jitter-ms", String.valueOf(c.jitterMillis)));
+            c.failureRate = Double.parseDouble(args.getOrDefault("failure-rate", String.valueOf(c.failureRate)));
+            c.retrieveMillis = Long.parseLong(args.getOrDefault("retrieve-ms", String.valueOf(c.retrieveMillis)));
+            c.apiMax = Long.parseLong(args.getOrDefault("api-max", String.valueOf(c.apiMax)));
+            return c;
+        }
+    }
+
+    /** A retrieve the org is working on, and the ZIP it will return once ready. */
+    private static final class Retrieve {
+        final long readyAt;
+        final String zipBase64;
+
+        Retrieve(long readyAt, String zipBase64) {
+            this.readyAt = readyAt;
+            this.zipBase64 = zipBase64;
+        }
+    }
+
+    private MetadataApiSimulator(Config config) throws IOException {
+        this.config = config;
+        this.corpus = ApexCorpus.generate(config.classes, config.linesPerClass, config.changeRate, 42);
+        this.fullZipBase64[0] = Base64.getEncoder().encodeToString(ApexCorpus.zip(corpus.baseline()));
+        this.fullZipBase64[1] = Base64.getEncoder().encodeToString(ApexCorpus.zip(corpus.changed()));
+        this.listMetadataResponse = ApexCorpus.listMetadataResponse(config.classes, 42);
+
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "sf-simulator-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", config.port), 256);
+        server.setExecutor(executor);
+        server.createContext("/services/oauth2/", this::oauth);
+        server.createContext("/services/data/", this::rest);
+        server.createContext("/services/Soap/m/", this::soap);
+    }
+
+    public static MetadataApiSimulator start(Config config) throws IOException {
+        MetadataApiSimulator simulator = new MetadataApiSimulator(config);
+        simulator.server.start();
+        return simulator;
+    }
+
+    /** Base URL, also the instance_url handed out with tokens. */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public ApexCorpus corpus() {
+        return corpus;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("apiCalls", apiCalls.get());
+        m.put("injectedFailures", failures.get());
+        m.put("fullRetrieves", fullRetrieves.get());
+        m.put("kbSent", bytesSent.get() / 1024);
+        return m;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void oauth(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/authorize")) {
+            Map<String, String> query = query(exchange.getRequestURI());
+            String location = query.get("redirect_uri") + "?code=sim-code-" + retrieveSeq.incrementAndGet()
+                + "&state=" + query.getOrDefault("state", "");
+            exchange.getResponseHeaders().add("Location", location);
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        } else if (path.endsWith("/token")) {
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, 200, "application/json", "{\"access_token\":\"00Dsim!token\",\"refresh_token\":\"sim-refresh\","
+                + "\"instance_url\":\"" + url() + "\",\"id\":\"" + url() + "/id/00D000000000001/005000000000001\",\"token_type\":\"Bearer\","
+                + "\"scope\":\"api full refresh_token\",\"issued_at\":\"" + System.currentTimeMillis() + "\"}");
+        } else {
+            respond(exchange, 200, "application/json", "{\"user_id\":\"005000000000001\",\"organization_id\":\"00D000000000001\","
+                + "\"preferred_username\":\"load@sim.example\"}");
+        }
+    }
+
+    private void rest(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (!admit(exchange, false)) return;
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/metadata/retrieve")) {
+            String id = startRetrieve(body.contains("\"*\"") ? null : body);
+            respond(exchange, 200, "application/json", "{\"retrieveRequestId\":\"" + id + "\"}");
+        } else if (path.endsWith("/metadata/retrieveResult")) {
+            Retrieve retrieve = retrieves.get(query(exchange.getRequestURI()).getOrDefault("retrieveRequestId", ""));
+            if (retrieve == null) {
+                respond(exchange, 200, "application/json", "{\"status\":\"Failed\",\"errorMessage\":\"Unknown retrieve id\"}");
+            } else if (System.currentTimeMillis() < retrieve.readyAt) {
+                respond(exchange, 200, "application/json", "{\"status\":\"InProgress\"}");
+            } else {
+                respond(exchange, 200, "application/json", "{\"status\":\"Succeeded\",\"zipFile\":\"" + retrieve.zipBase64 + "\"}");
+            }
+        } else {
+            respond(exchange, 200, "application/json", "{\"tooling\":\"/services/data/v57.0/tooling\",\"metadata\":\"/services/data/v57.0/metadata\"}");
+        }
+    }
+
+    private void soap(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (!admit(exchange, true)) return;
+        // checkRetrieveStatus is sent with SOAPAction "retrieve" as well, so dispatch on the body
+        if (body.contains("checkRetrieveStatus>")) {
+            Matcher m = ASYNC_ID.matcher(body);
+            Retrieve retrieve = m.find() ? retrieves.get(m.group(1).trim()) : null;
+            if (retrieve == null) {
+                fault(exchange, "INVALID_ID_FIELD: Retrieve request not found");
+            } else if (System.currentTimeMillis() < retrieve.readyAt) {
+                respond(exchange, 200, "text/xml", envelope("<checkRetrieveStatusResponse><result><done>false</done>"
+                    + "<status>InProgress</status></result></checkRetrieveStatusResponse>"));
+            } else {
+                respond(exchange, 200, "text/xml", envelope("<checkRetrieveStatusResponse><result><done>true</done>"
+                    + "<status>Succeeded</status><success>true</success><zipFile>" + retrieve.zipBase64
+                    + "</zipFile></result></checkRetrieveStatusResponse>"));
+            }
+        } else if (body.contains("retrieve>") || body.contains("retrieveRequest>")) {
+            Matcher m = MEMBERS.matcher(body);
+            StringBuilder members = new StringBuilder();
+            boolean all = false;
+            while (m.find()) {
+                all |= m.group(1).trim().equals("*");
+                members.append(m.group(1).trim()).append('\n');
+            }
+            String id = startRetrieve(all ? null : members.toString());
+            respond(exchange, 200, "text/xml", envelope("<retrieveResponse><result><done>false</done><id>" + id
+                + "</id><state>Queued</state></result></retrieveResponse>"));
+        } else if (body.contains("listMetadata>")) {
+            respond(exchange, 200, "text/xml", listMetadataResponse);
+        } else {
+            fault(exchange, "INVALID_OPERATION: not simulated");
+        }
+    }
+
+    /** Starts a retrieve of the whole org (members null) or of the named classes. */
+    private String startRetrieve(String members) {
+        String zipBase64;
+        if (members == null) {
+            zipBase64 = fullZipBase64[fullRetrieves.getAndIncrement() % 2];
+        } else {
+            Map<String, String> classes = new LinkedHashMap<>();
+            for (String name : members.split("[\\s,\"\\[\\]]+")) {
+                String source = corpus.changed().get(name.trim());
+                if (source != null) classes.put(name.trim(), source);
+            }
+            zipBase64 = Base64.getEncoder().encodeToString(ApexCorpus.zip(classes));
+        }
+        String id = String.format("09S%012dSIM", retrieveSeq.incrementAndGet());
+        retrieves.put(id, new Retrieve(System.currentTimeMillis() + config.retrieveMillis, zipBase64));
+        return id;
+    }
+
+    /** Count the call, wait out the simulated latency and maybe inject a failure. */
+    private boolean admit(HttpExchange exchange, boolean soap) throws IOException {
+        long used = apiCalls.incrementAndGet();
+        exchange.getResponseHeaders().add("Sforce-Limit-Info", "api-usage=" + used + "/" + config.apiMax);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = config.latencyMillis + (config.jitterMillis > 0 ? random.nextLong(config.jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (config.failureRate > 0 && random.nextDouble() < config.failureRate) {
+            failures.incrementAndGet();
+            if (soap) {
+                fault(exchange, "UNKNOWN_EXCEPTION: simulated failure");
+            } else {
+                respond(exchange, 500, "application/json", "[{\"errorCode\":\"UNKNOWN_EXCEPTION\",\"message\":\"simulated failure\"}]");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void fault(HttpExchange exchange, String message) throws IOException {
+        respond(exchange, 500, "text/xml", envelope("<soapenv:Fault><faultcode>sf:UNKNOWN_EXCEPTION</faultcode><faultstring>"
+            + message + "</faultstring></soapenv:Fault>"));
+    }
+
+    private static String envelope(String body) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns=\"http://soap.sforce.com/2006/04/metadata\"><soapenv:Body>" + body + "</soapenv:Body></soapenv:Envelope>";
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        bytesSent.addAndGet(bytes.length);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> out = new LinkedHashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        MetadataApiSimulator simulator = start(Config.fromArgs(LoadHarness.parseArgs(args)));
+        System.out.println("Simulated org of " + simulator.config.classes + " classes at " + simulator.url());
+        System.out.println("Point the app at it with salesforce.authUrl=" + simulator.url() + "/services/oauth2/authorize"
+            + " and salesforce.tokenUrl=" + simulator.url() + "/services/oauth2/token");
+        Thread.currentThread().join();
+    }
+}
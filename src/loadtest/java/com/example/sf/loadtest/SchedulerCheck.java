@@ -0,0 +1,298 @@
+package com.example.sf.loadtest;
+
+import com.example.sf.service.SalesforceRequestScheduler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Checks {@link SalesforceRequestScheduler} against a local stub org that reports its API usage
+ * in a Sforce-Limit-Info header like Salesforce does:
+ *
+ *   - api-usage is parsed from the header into usage()
+ *   - at most max-concurrent-per-org calls run at once, and calls are spaced to requests-per-second
+ *   - waiting interactive calls are admitted ahead of waiting background calls
+ *   - background calls are refused, and interactive ones still admitted, below the reserve
+ *   - a streamed body, through HttpClient or WebClient, holds its permit until it is consumed
+ *   - a WebClient call cancelled while queued for admission gives its permit back
+ *
+ *   mvn -Pbenchmarks test-compile exec:exec@scheduler-check
+ *
+ * Exits with status 1 when any check failed.
+ */
+public final class SchedulerCheck {
+
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        StubOrg stub = new StubOrg();
+        try {
+            usageIsParsed(stub);
+            concurrencyIsCapped(stub);
+            callsAreSpaced(stub);
+            interactiveGoesFirst(stub);
+            backgroundIsRefusedBelowReserve(stub);
+            streamedBodiesHoldTheirPermit(stub);
+            cancelledWebClientCallsGiveThePermitBack(stub);
+        } finally {
+            stub.stop();
+        }
+        failures.forEach(failure -> System.out.println("Failed: " + failure));
+        System.out.println(failures.isEmpty() ? "All scheduler checks passed" : failures.size() + " scheduler check(s) failed");
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static void usageIsParsed(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(4, 0, 10);
+        stub.reset(250);
+        scheduler.send(stub.request("tag=usage"), HttpResponse.BodyHandlers.ofString());
+        Map<String, Object> org = org(scheduler);
+        check("usage: apiUsed", 250L, org.get("apiUsed"));
+        check("usage: apiMax", 1000L, org.get("apiMax"));
+        check("usage: apiRemaining", 750L, org.get("apiRemaining"));
+        check("usage: backgroundPaused", false, org.get("backgroundPaused"));
+        check("usage: admitted", 1L, org.get("admitted"));
+    }
+
+    private static void concurrencyIsCapped(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(2, 0, 10);
+        stub.reset(0);
+        run(8, i -> scheduler.send(stub.request("sleep=150"), HttpResponse.BodyHandlers.ofString()));
+        check("concurrency: most calls at the stub at once", 2, stub.maxInFlight.get());
+        check("concurrency: running afterwards", 0, org(scheduler).get("running"));
+    }
+
+    private static void callsAreSpaced(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(8, 10, 10);
+        stub.reset(0);
+        long started = System.nanoTime();
+        run(11, i -> scheduler.send(stub.request("tag=rate"), HttpResponse.BodyHandlers.ofString()));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        // 11 calls at 10 per second: the last is admitted a second after the first
+        if (millis < 950) failures.add("rate: 11 calls at 10/s took " + millis + " ms");
+    }
+
+    private static void interactiveGoesFirst(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(1, 0, 10);
+        stub.reset(0);
+        CountDownLatch gate = stub.gate();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(start(() -> scheduler.send(stub.request("tag=blocker&gate=1"), HttpResponse.BodyHandlers.ofString())));
+        await("priority: blocker running", () -> stub.arrivals.contains("blocker"));
+        for (int i = 0; i < 3; i++) {
+            String tag = "background" + i;
+            threads.add(start(() -> scheduler.inBackground(() -> scheduler.send(stub.request("tag=" + tag), HttpResponse.BodyHandlers.ofString()))));
+        }
+        await("priority: background calls queued", () -> Integer.valueOf(3).equals(org(scheduler).get("waitingBackground")));
+        threads.add(start(() -> scheduler.send(stub.request("tag=interactive"), HttpResponse.BodyHandlers.ofString())));
+        await("priority: interactive call queued", () -> Integer.valueOf(1).equals(org(scheduler).get("waitingInteractive")));
+        gate.countDown();
+        for (Thread thread : threads) thread.join();
+        check("priority: call admitted after the blocker", "interactive", stub.arrivals.get(1));
+    }
+
+    private static void backgroundIsRefusedBelowReserve(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(4, 0, 10);
+        // 5% of the allocation left, under the 10% reserve
+        stub.reset(950);
+        scheduler.send(stub.request("tag=reserve"), HttpResponse.BodyHandlers.ofString());
+        try {
+            scheduler.inBackground(() -> scheduler.send(stub.request("tag=refused"), HttpResponse.BodyHandlers.ofString()));
+            failures.add("reserve: background call admitted at 950/1000");
+        } catch (IllegalStateException expected) {
+            // refused
+        }
+        check("reserve: interactive call status", 200,
+            scheduler.send(stub.request("tag=interactive"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        Map<String, Object> org = org(scheduler);
+        check("reserve: backgroundPaused", true, org.get("backgroundPaused"));
+        check("reserve: refusedBackground", 1L, org.get("refusedBackground"));
+        check("reserve: calls that reached the stub", 2, stub.arrivals.size());
+    }
+
+    private static void streamedBodiesHoldTheirPermit(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(4, 0, 10);
+        stub.reset(0);
+        HttpResponse<InputStream> response = scheduler.send(stub.request("tag=stream"), HttpResponse.BodyHandlers.ofInputStream());
+        check("stream: running while the body is open", 1, org(scheduler).get("running"));
+        try (InputStream body = response.body()) {
+            body.readAllBytes();
+        }
+        check("stream: running once the body is closed", 0, org(scheduler).get("running"));
+
+        WebClient client = WebClient.builder().filter(scheduler.filter()).build();
+        String body = client.get().uri(stub.uri("tag=webclient")).exchangeToMono(clientResponse -> {
+            check("webclient: running before the body is read", 1, org(scheduler).get("running"));
+            return clientResponse.bodyToMono(String.class);
+        }).block(Duration.ofSeconds(10));
+        check("webclient: body", "ok", body);
+        check("webclient: running once the body is read", 0, org(scheduler).get("running"));
+    }
+
+    private static void cancelledWebClientCallsGiveThePermitBack(StubOrg stub) throws Exception {
+        SalesforceRequestScheduler scheduler = new SalesforceRequestScheduler(1, 0, 10);
+        stub.reset(0);
+        WebClient client = WebClient.builder().filter(scheduler.filter()).build();
+        CountDownLatch gate = stub.gate();
+        Thread blocker = start(() -> scheduler.send(stub.request("tag=blocker&gate=1"), HttpResponse.BodyHandlers.ofString()));
+        await("cancel: blocker running", () -> stub.arrivals.contains("blocker"));
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.get().uri(stub.uri("tag=cancelled")).retrieve().bodyToMono(String.class)
+                    .timeout(Duration.ofMillis(100)).block(Duration.ofSeconds(10));
+                failures.add("cancel: call admitted past the blocker");
+            } catch (RuntimeException expected) {
+                // timed out while queued
+            }
+        }
+        gate.countDown();
+        blocker.join();
+        String body = client.get().uri(stub.uri("tag=after")).retrieve().bodyToMono(String.class)
+            .timeout(Duration.ofSeconds(5)).onErrorResume(e -> Mono.just("timed out")).block();
+        check("cancel: call after the cancelled ones", "ok", body);
+        await("cancel: permits all returned", () -> Integer.valueOf(0).equals(org(scheduler).get("running")));
+        check("cancel: calls that reached the stub", List.of("blocker", "after"), List.copyOf(stub.arrivals));
+    }
+
+    // --- helpers -------------------------------------------------------------------------------
+
+    @FunctionalInterface
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface IndexedCall {
+        void run(int i) throws Exception;
+    }
+
+    /** The usage of the only org a scheduler has seen. */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> org(SalesforceRequestScheduler scheduler) {
+        return (Map<String, Object>) scheduler.usage().values().iterator().next();
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (!expected.equals(actual)) failures.add(what + ": expected " + expected + ", got " + actual);
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("Timed out waiting for " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Thread start(Call call) {
+        Thread thread = new Thread(() -> {
+            try {
+                call.run();
+            } catch (Exception e) {
+                failures.add(e.toString());
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void run(int calls, IndexedCall call) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            int n = i;
+            threads.add(start(() -> call.run(n)));
+        }
+        for (Thread thread : threads) thread.join();
+    }
+
+    /**
+     * Answers "ok" with Sforce-Limit-Info: api-usage=used/1000. Query parameters: sleep (ms to
+     * hold the call), gate (hold the call until the current gate opens), tag (recorded in
+     * arrival order).
+     */
+    private static final class StubOrg {
+        final HttpServer server;
+        final AtomicLong used = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<String> arrivals = Collections.synchronizedList(new ArrayList<>());
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        StubOrg() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        void reset(long apiUsed) {
+            used.set(apiUsed);
+            maxInFlight.set(0);
+            arrivals.clear();
+        }
+
+        CountDownLatch gate() {
+            gate = new CountDownLatch(1);
+            return gate;
+        }
+
+        URI uri(String query) {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/services/data?" + query);
+        }
+
+        HttpRequest request(String query) {
+            return HttpRequest.newBuilder(uri(query)).GET().build();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getQuery();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                for (String param : query.split("&")) {
+                    String[] kv = param.split("=", 2);
+                    switch (kv[0]) {
+                        case "tag" -> arrivals.add(kv[1]);
+                        case "sleep" -> Thread.sleep(Long.parseLong(kv[1]));
+                        case "gate" -> gate.await(10, TimeUnit.SECONDS);
+                        default -> { }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Sforce-Limit-Info", "api-usage=" + used.get() + "/1000");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.sf.loadtest;
+
+import com.example.sf.model.ComparisonChange;
+import com.example.sf.model.ComparisonResult;
+import com.example.sf.service.ApexComparisonService;
+import com.example.sf.service.ApexSnapshotStore;
+import com.example.sf.service.PipelineMetrics;
+import com.example.sf.service.RetrievePayload;
+import com.example.sf.service.ZipExtractionPipeline;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs retrieves and compares against one snapshot store at the same time and checks every
+ * compare for torn reads.
+ *
+ * Retrieve k rewrites every line of every class to name its own number, so a consistent compare
+ * is always retrieve k-1 on the old side against retrieve k on the new side, with every line of
+ * each side from one retrieve. Anything else (mixed numbers within a side, sides further apart,
+ * a missing file, an error) means a reader saw a snapshot being written or one from another
+ * generation. Both the typed compare and the served JSON are checked.
+ *
+ *   mvn -Pbenchmarks test-compile exec:exec@snapshot-stress -Dstress.args="mode=zip readers=16 duration-s=60"
+ *
+ * Options (name=value): mode (directory or zip), classes, lines, readers, duration-s. Exits with
+ * status 1 when any compare was inconsistent.
+ */
+public final class SnapshotStress {
+
+    private static final Pattern RETRIEVE = Pattern.compile("retrieve (\\d+) line");
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadHarness.parseArgs(args);
+        String mode = options.getOrDefault("mode", "directory");
+        int classes = Integer.parseInt(options.getOrDefault("classes", "50"));
+        int lines = Integer.parseInt(options.getOrDefault("lines", "40"));
+        int readers = Integer.parseInt(options.getOrDefault("readers", "8"));
+        long durationMillis = Long.parseLong(options.getOrDefault("duration-s", "20")) * 1000;
+
+        Path root = Files.createTempDirectory("sf-snapshot-stress");
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        ApexSnapshotStore store = new ApexSnapshotStore(root.toString(), mode, 4, new ZipExtractionPipeline(4, 64, metrics));
+        ApexComparisonService comparisons = new ApexComparisonService(JSON, metrics, 100, 1000, 500, 4);
+        store.save(RetrievePayload.ofBytes(zip(1, classes, lines)));
+
+        long deadline = System.currentTimeMillis() + durationMillis;
+        AtomicLong retrieves = new AtomicLong(1);
+        AtomicLong compares = new AtomicLong();
+        AtomicLong torn = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                for (int k = 2; System.currentTimeMillis() < deadline; k++) {
+                    store.save(RetrievePayload.ofBytes(zip(k, classes, lines)));
+                    retrieves.incrementAndGet();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                torn.incrementAndGet();
+            }
+        }, "stress-retrieve"));
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    String className = className(random.nextInt(classes));
+                    String problem;
+                    try {
+                        problem = random.nextBoolean()
+                            ? check(comparisons.compareFile(store, className), lines)
+                            : check(JSON.readTree(comparisons.compareFileJson(store, className)), lines);
+                    } catch (Exception e) {
+                        problem = e.toString();
+                    }
+                    compares.incrementAndGet();
+                    if (problem != null && torn.incrementAndGet() <= 10) {
+                        System.out.println("Inconsistent compare of " + className + ": " + problem);
+                    }
+                }
+            }, "stress-compare-" + r));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+
+        comparisons.close();
+        store.close();
+        deleteRecursively(root);
+        System.out.printf("%s mode: %d retrieves, %d compares, %d inconsistent%n", mode, retrieves.get(), compares.get(), torn.get());
+        System.exit(torn.get() == 0 ? 0 : 1);
+    }
+
+    /** Why a compare is inconsistent, or null when it is not. */
+    private static String check(ComparisonResult result, int lines) {
+        if (ComparisonResult.NO_OLD_FILE.equals(result.getStatus())) {
+            return sameRetrieve(result.getNew(), lines) == 1 ? null : "no old file after the first retrieve";
+        }
+        if (!ComparisonResult.CHANGES_FOUND.equals(result.getStatus())) {
+            return "status " + result.getStatus() + (result.getMessage() == null ? "" : ": " + result.getMessage());
+        }
+        StringBuilder oldSide = new StringBuilder();
+        StringBuilder newSide = new StringBuilder();
+        for (ComparisonChange change : result.getChanges()) {
+            if (change.getOld() != null) oldSide.append(change.getOld()).append('\n');
+            if (change.getNew() != null) newSide.append(change.getNew()).append('\n');
+        }
+        return pair(oldSide.toString(), newSide.toString(), lines);
+    }
+
+    private static String check(JsonNode result, int lines) {
+        String status = result.path("status").asText();
+        if (ComparisonResult.NO_OLD_FILE.equals(status)) {
+            return sameRetrieve(result.path("new").asText(), lines) == 1 ? null : "no old file after the first retrieve";
+        }
+        if (!ComparisonResult.CHANGES_FOUND.equals(status)) {
+            return "status " + status + " " + result.path("message").asText("");
+        }
+        StringBuilder oldSide = new StringBuilder();
+        StringBuilder newSide = new StringBuilder();
+        for (JsonNode change : result.path("changes")) {
+            if (change.hasNonNull("old")) oldSide.append(change.get("old").asText()).append('\n');
+            if (change.hasNonNull("new")) newSide.append(change.get("new").asText()).append('\n');
+        }
+        return pair(oldSide.toString(), newSide.toString(), lines);
+    }
+
+    private static String pair(String oldSide, String newSide, int lines) {
+        long previous = sameRetrieve(oldSide, lines);
+        long current = sameRetrieve(newSide, lines);
+        if (previous < 0 || current < 0) return "a side mixes retrieves or misses lines";
+        return current == previous + 1 ? null : "retrieve " + previous + " compared with retrieve " + current;
+    }
+
+    /** The retrieve every one of the lines names, or -1 if they are not all there or disagree. */
+    private static long sameRetrieve(String text, int lines) {
+        if (text == null) return -1;
+        TreeSet<Long> seen = new TreeSet<>();
+        int count = 0;
+        Matcher m = RETRIEVE.matcher(text);
+        while (m.find()) {
+            seen.add(Long.parseLong(m.group(1)));
+            count++;
+        }
+        return count == lines && seen.size() == 1 ? seen.first() : -1;
+    }
+
+    private static String className(int i) {
+        return String.format("StressClass%03d", i);
+    }
+
+    private static byte[] zip(int retrieve, int classes, int lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int c = 0; c < classes; c++) {
+                String name = className(c);
+                StringBuilder src = new StringBuilder("public class ").append(name).append(" {\n");
+                for (int i = 0; i < lines; i++) {
+                    src.append("    // ").append(name).append(" retrieve ").append(retrieve).append(" line ").append(i).append('\n');
+                }
+                src.append("}\n");
+                zip.putNextEntry(new ZipEntry("unpackaged/classes/" + name + ".cls"));
+                zip.write(src.toString().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -1,12 +1,33 @@
 package com.example.sf.controller;
 
+import com.example.sf.model.ChangeSummary;
+import com.example.sf.model.RetrieveOutcome;
 import com.example.sf.service.ApexComparisonService;
+import com.example.sf.service.ApexSnapshotStore;
+import com.example.sf.service.ChangeJournal;
+import com.example.sf.service.OrgRegistry;
+import com.example.sf.service.OrgSyncService;
+import com.example.sf.service.ProgressTracker;
+import com.example.sf.service.RetrieveCoordinator;
 import com.example.sf.service.SalesforceApexService;
+import com.example.sf.service.SalesforceOrg;
+import com.example.sf.util.EntityTags;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import org.springframework.util.unit.DataSize;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
 
-import java.nio.file.Path;
 import java.util.*;
 
 @RestController
@@ -15,24 +36,119 @@ public class ApexController {
 
     private final SalesforceApexService apexService;
     private final ApexComparisonService comparisonService;
+    private final OrgRegistry orgs;
+    private final OrgSyncService orgSync;
+    private final ChangeJournal changeJournal;
+    private final RetrieveCoordinator retrieveCoordinator;
+    private final ProgressTracker progressTracker;
+    private final ObjectMapper objectMapper;
+    private final long gzipMinBytes;
 
     public ApexController(SalesforceApexService apexService,
-                          ApexComparisonService comparisonService) {
+                          ApexComparisonService comparisonService,
+                          OrgRegistry orgs,
+                          OrgSyncService orgSync,
+                          ChangeJournal changeJournal,
+                          RetrieveCoordinator retrieveCoordinator,
+                          ProgressTracker progressTracker,
+                          ObjectMapper objectMapper,
+                          @Value("${server.compression.min-response-size:2KB}") DataSize gzipMinSize) {
         this.apexService = apexService;
         this.comparisonService = comparisonService;
+        this.orgs = orgs;
+        this.orgSync = orgSync;
+        this.changeJournal = changeJournal;
+        this.retrieveCoordinator = retrieveCoordinator;
+        this.progressTracker = progressTracker;
+        this.objectMapper = objectMapper;
+        this.gzipMinBytes = gzipMinSize.toBytes();
     }
 
-    @GetMapping("/classes")
-    public Mono<Object> list(HttpSession session) {
-        String token = (String) session.getAttribute("sf_access_token");
-        String instance = (String) session.getAttribute("sf_instance_url");
+    /**
+     * Progress events of an operation started with ?progressId={progressId}. Subscribe before
+     * or after starting it; the stream ends once the operation finished.
+     */
+    @GetMapping(value = "/progress/{progressId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> progress(@PathVariable String progressId) {
+        return progressTracker.stream(progressId);
+    }
 
-        if (token == null || instance == null) {
-            return Mono.just(Map.of("error", "Not connected. Visit /connect"));
+    /**
+     * Configured orgs with their storage, published generation and last sync. Endpoints that
+     * take ?org= act on the named org, else on the org the session is connected to.
+     */
+    @GetMapping("/orgs")
+    public Mono<List<Map<String, Object>>> listOrgs() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (SalesforceOrg org : orgs.all()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", org.id());
+            m.put("instanceUrl", org.instanceUrl());
+            m.put("storagePath", org.storageRoot().toAbsolutePath().toString());
+            m.put("generation", org.store().generationId());
+            m.put("hasCredentials", org.hasCredentials());
+            m.put("lastSync", orgSync.status(org));
+            out.add(m);
+        }
+        return Mono.just(out);
+    }
+
+    /**
+     * Start full retrieves of the given orgs (?org=prod,uat1), or of every configured org, in
+     * parallel on the shared sync pool. Returns at once; follow them at /apex/orgs.
+     */
+    @PostMapping("/orgs/sync")
+    public Mono<Object> syncOrgs(@RequestParam(required = false) String org) {
+        try {
+            List<SalesforceOrg> targets = new ArrayList<>();
+            if (org == null || org.isBlank()) {
+                orgs.all().stream().filter(o -> !o.isDefault()).forEach(targets::add);
+            } else {
+                for (String id : org.split(",")) targets.add(orgs.get(id));
+            }
+            List<String> started = new ArrayList<>();
+            for (SalesforceOrg target : targets) {
+                orgSync.sync(target);
+                started.add(target.id());
+            }
+            return Mono.just(Map.of("success", true, "started", started));
+        } catch (Exception e) {
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            return Mono.just(Map.of("error", "org_sync_failed", "message", msg));
+        }
+    }
+
+    /**
+     * Class changes of every stored retrieve, oldest first: ?offset=0&limit=1000, then
+     * ?offset={nextOffset}. With &waitMs=30000 a read at the end of the journal waits up to that
+     * long for new entries; &org=prod keeps only that org's entries.
+     */
+    @GetMapping("/journal")
+    public Mono<Object> journal(@RequestParam(defaultValue = "0") long offset,
+                                @RequestParam(required = false) Integer limit,
+                                @RequestParam(required = false) String org,
+                                @RequestParam(defaultValue = "0") long waitMs) {
+        // Read on another thread: the append that ends the wait completes it on the sync's thread
+        return Mono.fromFuture(changeJournal.awaitEntries(offset, waitMs))
+            .publishOn(Schedulers.boundedElastic())
+            .then(Mono.fromCallable(() -> (Object) ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(changeJournal.readJson(offset, limit, org))))
+            .onErrorResume(e -> Mono.just(Map.of("error", "journal_read_failed",
+                "message", e.getMessage() == null ? e.toString() : e.getMessage())));
+    }
+
+    @GetMapping("/classes")
+    public Mono<Object> list(@RequestParam(required = false) String org, HttpSession session) {
+        SalesforceOrg.Connection connection;
+        try {
+            connection = connect(org, session);
+        } catch (Exception e) {
+            return Mono.just(Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
         }
 
         try {
-            List<Map<String, Object>> list = apexService.getApexClassList(token, instance);
+            List<Map<String, Object>> list = apexService.getApexClassList(connection.token(), connection.instanceUrl());
             return Mono.just(list);
         } catch (Exception e) {
             String cls = e == null ? "UnknownException" : e.getClass().getSimpleName();
@@ -85,16 +201,16 @@ public class ApexController {
     }
 
     @GetMapping("/get-retrieve-id")
-    public Mono<Object> getRetrieveId(HttpSession session) {
-        String token = (String) session.getAttribute("sf_access_token");
-        String instance = (String) session.getAttribute("sf_instance_url");
-
-        if (token == null || instance == null) {
-            return Mono.just(Map.of("error", "Not connected. Visit /connect first"));
+    public Mono<Object> getRetrieveId(@RequestParam(required = false) String org, HttpSession session) {
+        SalesforceOrg.Connection connection;
+        try {
+            connection = connect(org, session);
+        } catch (Exception e) {
+            return Mono.just(Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
         }
 
         try {
-            String retrieveId = apexService.sendRetrieveRequestAndGetId(token, instance);
+            String retrieveId = apexService.sendRetrieveRequestAndGetId(connection.token(), connection.instanceUrl());
             
             System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
             System.out.println("✅ Retrieve ID → " + retrieveId);
@@ -113,20 +229,25 @@ public class ApexController {
     }
 
     @GetMapping("/check-retrieve-status/{retrieveId}")
-    public Mono<Object> checkRetrieveStatus(@PathVariable String retrieveId, HttpSession session) {
-        String token = (String) session.getAttribute("sf_access_token");
-        String instance = (String) session.getAttribute("sf_instance_url");
-
-        if (token == null || instance == null) {
-            return Mono.just(Map.of("error", "Not connected. Visit /connect first"));
+    public Mono<Object> checkRetrieveStatus(@PathVariable String retrieveId,
+                                            @RequestParam(required = false) String progressId,
+                                            @RequestParam(required = false) String org,
+                                            HttpSession session) {
+        SalesforceOrg.Connection connection;
+        try {
+            connection = connect(org, session);
+        } catch (Exception e) {
+            return Mono.just(Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
         }
+        ApexSnapshotStore store = orgs.forInstance(connection.instanceUrl()).store();
 
+        ProgressTracker.Scope progress = progressTracker.start(progressId, "check-retrieve-status");
         try {
             System.out.println("\n━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
             System.out.println("🔄 Polling checkRetrieveStatus for ID: " + retrieveId);
             System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━\n");
             
-            Map<String, String> result = apexService.waitForRetrieveAndDownload(retrieveId, token, instance);
+            Map<String, String> result = apexService.waitForRetrieveAndDownload(retrieveId, connection.token(), connection.instanceUrl());
             
             System.out.println("\n━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
             System.out.println("✅ Retrieve completed successfully!");
@@ -139,38 +260,45 @@ public class ApexController {
                 "retrieveId", retrieveId,
                 "classCount", result.size(),
                 "classes", result.keySet(),
-                "extractedPath", Path.of("storage/apex/new").toAbsolutePath().toString(),
+                "extractedPath", store.newDirectory().toAbsolutePath().toString(),
                 "message", "Retrieve completed and extracted to storage/apex/new/"
             ));
         } catch (Exception e) {
             String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            progress.failed(e);
             System.err.println("\n❌ Error checking retrieve status: " + msg + "\n");
             return Mono.just(Map.of("error", "check_retrieve_status_failed", "message", msg));
+        } finally {
+            progress.close();
         }
     }
 
     @GetMapping("/retrieve-and-poll")
-    public Mono<Object> retrieveAndPoll(HttpSession session) {
-        String token = (String) session.getAttribute("sf_access_token");
-        String instance = (String) session.getAttribute("sf_instance_url");
-
-        if (token == null || instance == null) {
-            return Mono.just(Map.of("error", "Not connected. Visit /connect first"));
+    public Mono<Object> retrieveAndPoll(@RequestParam(required = false) String progressId,
+                                        @RequestParam(required = false) String org,
+                                        HttpSession session) {
+        SalesforceOrg.Connection connection;
+        try {
+            connection = connect(org, session);
+        } catch (Exception e) {
+            return Mono.just(Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
         }
+        ApexSnapshotStore store = orgs.forInstance(connection.instanceUrl()).store();
 
+        ProgressTracker.Scope progress = progressTracker.start(progressId, "retrieve-and-poll");
         try {
             System.out.println("\n━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
             System.out.println("🚀 Starting Metadata API Retrieve");
             System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━\n");
             
-            String retrieveId = apexService.sendRetrieveRequestAndGetId(token, instance);
-            System.out.println("✅ Retrieve ID → " + retrieveId + "\n");
-            
             System.out.println("🔄 Polling checkRetrieveStatus (this may take a few seconds)...\n");
-            Map<String, String> result = apexService.waitForRetrieveAndDownload(retrieveId, token, instance);
+            // Concurrent callers for the same org share one retrieve (or a recent result)
+            RetrieveOutcome outcome = retrieveCoordinator.retrieveAndPoll(connection.token(), connection.instanceUrl());
+            String retrieveId = outcome.getRetrieveId();
+            Map<String, String> result = outcome.getClasses();
             
             System.out.println("\n━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-            System.out.println("✅ Retrieve completed successfully!");
+            System.out.println("✅ Retrieve completed successfully! (" + outcome.getSource() + " retrieve " + retrieveId + ")");
             System.out.println("📦 Retrieved " + result.size() + " Apex classes");
             System.out.println("📂 Files saved to: storage/apex/new/");
             System.out.println("📦 Changed files archived to: storage/apex/old/ (with timestamp)");
@@ -183,48 +311,190 @@ public class ApexController {
             return Mono.just(Map.of(
                 "success", true,
                 "retrieveId", retrieveId,
+                "source", outcome.getSource(),
+                "completedAt", outcome.getCompletedAt(),
                 "classCount", result.size(),
                 "classes", result.keySet(),
-                "extractedPath", Path.of("storage/apex/new").toAbsolutePath().toString(),
+                "extractedPath", store.newDirectory().toAbsolutePath().toString(),
                 "message", "Retrieve completed and extracted to storage/apex/new/"
             ));
         } catch (Exception e) {
             String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            progress.failed(e);
             System.err.println("\n❌ Error in retrieve and poll: " + msg + "\n");
             return Mono.just(Map.of("error", "retrieve_and_poll_failed", "message", msg));
+        } finally {
+            progress.close();
         }
     }
 
+    // Compare responses carry a strong ETag of the compared content; a matching If-None-Match gets
+    // a 304 before any class file is read or diffed. Tag and body come from one opened generation.
+
     @GetMapping("/compare/{fileName}")
-    public Mono<Object> compareFile(@PathVariable String fileName) {
+    public Mono<ResponseEntity<Object>> compareFile(@PathVariable String fileName,
+                                                    @RequestParam(required = false) String org,
+                                                    @SessionAttribute(value = "sf_instance_url", required = false) String sessionInstance,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         try {
-            Map<String, Object> result = comparisonService.compareFile(fileName);
-            return Mono.just(result);
+            try (ApexSnapshotStore.Generation generation = orgs.resolve(org, sessionInstance).store().open()) {
+                String etag = comparisonService.compareFileTag(generation, fileName);
+                String matched = EntityTags.matching(ifNoneMatch, etag);
+                if (matched != null) {
+                    return Mono.just(notModified(matched));
+                }
+                return Mono.just(tagged(etag, comparisonService.compareFileJson(generation, fileName), acceptEncoding));
+            }
         } catch (Exception e) {
             String msg = e.getMessage() == null ? e.toString() : e.getMessage();
-            return Mono.just(Map.of("error", "comparison_failed", "message", msg));
+            return Mono.just(ResponseEntity.ok(Map.of("error", "comparison_failed", "message", msg)));
         }
     }
 
     @GetMapping("/compare-files")
-    public Mono<Object> compareAllFiles() {
+    public Mono<ResponseEntity<Object>> compareAllFiles(@RequestParam(required = false) String progressId,
+                                                        @RequestParam(required = false) String org,
+                                                        @SessionAttribute(value = "sf_instance_url", required = false) String sessionInstance,
+                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ProgressTracker.Scope progress = progressTracker.start(progressId, "compare-files");
         try {
-            List<Map<String, Object>> results = comparisonService.compareAll();
-            return Mono.just(results);
+            try (ApexSnapshotStore.Generation generation = orgs.resolve(org, sessionInstance).store().open()) {
+                String etag = comparisonService.compareAllTag(generation);
+                String matched = EntityTags.matching(ifNoneMatch, etag);
+                if (matched != null) {
+                    return Mono.just(notModified(matched));
+                }
+                return Mono.just(tagged(etag, comparisonService.compareAllJson(generation), acceptEncoding));
+            }
         } catch (Exception e) {
+            progress.failed(e);
             String msg = e.getMessage() == null ? e.toString() : e.getMessage();
-            return Mono.just(Map.of("error", "comparison_failed", "message", msg));
+            return Mono.just(ResponseEntity.ok(Map.of("error", "comparison_failed", "message", msg)));
+        } finally {
+            progress.close();
+        }
+    }
+
+    /**
+     * A page of comparison results: ?status=changes_found,no_old_file&name=*Service&limit=50,
+     * then &cursor={nextCursor} for the next page.
+     */
+    @GetMapping("/compare-query")
+    public Mono<ResponseEntity<Object>> queryComparisons(@RequestParam(required = false) String status,
+                                                         @RequestParam(required = false) String name,
+                                                         @RequestParam(required = false) Integer limit,
+                                                         @RequestParam(required = false) String cursor,
+                                                         @RequestParam(required = false) String org,
+                                                         @SessionAttribute(value = "sf_instance_url", required = false) String sessionInstance,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                         @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        try {
+            try (ApexSnapshotStore.Generation generation = orgs.resolve(org, sessionInstance).store().open()) {
+                String etag = comparisonService.queryTag(generation, status, name, limit, cursor);
+                String matched = EntityTags.matching(ifNoneMatch, etag);
+                if (matched != null) {
+                    return Mono.just(notModified(matched));
+                }
+                return Mono.just(tagged(etag, comparisonService.queryJson(generation, status, name, limit, cursor), acceptEncoding));
+            }
+        } catch (Exception e) {
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            return Mono.just(ResponseEntity.ok(Map.of("error", "query_failed", "message", msg)));
+        }
+    }
+
+    /**
+     * Compare an explicit list of classes in one call. Body: ["AccountService", "OrderHandler", ...].
+     * Classes that cannot be compared get status "error" without failing the others.
+     */
+    @PostMapping("/compare-batch")
+    public Mono<Object> compareBatch(@RequestBody List<String> classNames,
+                                     @RequestParam(required = false) String org,
+                                     @SessionAttribute(value = "sf_instance_url", required = false) String sessionInstance) {
+        try {
+            byte[] json = comparisonService.compareBatchJson(orgs.resolve(org, sessionInstance).store(), classNames);
+            return Mono.just(ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json));
+        } catch (Exception e) {
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            return Mono.just(Map.of("error", "batch_compare_failed", "message", msg));
+        }
+    }
+
+    /**
+     * Drift between the stored snapshots of two orgs, without retrieving either:
+     * ?source=uat1&target=prod, optionally &name=*Service. Lists the classes that differ and
+     * those that exist in only one of them.
+     */
+    @GetMapping("/compare-orgs")
+    public Mono<ResponseEntity<Object>> compareOrgs(@RequestParam String source,
+                                                    @RequestParam String target,
+                                                    @RequestParam(required = false) String name,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        try {
+            try (ApexSnapshotStore.Generation sourceGeneration = orgs.get(source).store().open();
+                 ApexSnapshotStore.Generation targetGeneration = orgs.get(target).store().open()) {
+                String etag = comparisonService.compareOrgsTag(sourceGeneration, targetGeneration, name);
+                String matched = EntityTags.matching(ifNoneMatch, etag);
+                if (matched != null) {
+                    return Mono.just(notModified(matched));
+                }
+                return Mono.just(tagged(etag, comparisonService.compareOrgsJson(sourceGeneration, targetGeneration, name), acceptEncoding));
+            }
+        } catch (Exception e) {
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            return Mono.just(ResponseEntity.ok(Map.of("error", "org_comparison_failed", "message", msg)));
         }
     }
 
     @GetMapping("/compare-summary")
-    public Mono<Object> getChangeSummary() {
+    public Mono<ResponseEntity<Object>> getChangeSummary(@RequestParam(required = false) String org,
+                                                         @SessionAttribute(value = "sf_instance_url", required = false) String sessionInstance,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                         @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         try {
-            Map<String, Object> summary = comparisonService.getChangeSummary();
-            return Mono.just(summary);
+            try (ApexSnapshotStore.Generation generation = orgs.resolve(org, sessionInstance).store().open()) {
+                String etag = comparisonService.summaryTag(generation);
+                String matched = EntityTags.matching(ifNoneMatch, etag);
+                if (matched != null) {
+                    return Mono.just(notModified(matched));
+                }
+                ChangeSummary summary = comparisonService.getChangeSummary(generation);
+                return Mono.just(tagged(etag, objectMapper.writeValueAsBytes(summary), acceptEncoding));
+            }
         } catch (Exception e) {
             String msg = e.getMessage() == null ? e.toString() : e.getMessage();
-            return Mono.just(Map.of("error", "summary_failed", "message", msg));
+            return Mono.just(ResponseEntity.ok(Map.of("error", "summary_failed", "message", msg)));
+        }
+    }
+
+    /** Credentials for ?org= (else the session's org): the session's own, or the org's stored ones. */
+    private SalesforceOrg.Connection connect(String org, HttpSession session) throws Exception {
+        String token = (String) session.getAttribute("sf_access_token");
+        String instance = (String) session.getAttribute("sf_instance_url");
+        return orgs.connection(orgs.resolve(org, instance), token, instance);
+    }
+
+    /** 304 under the tag of the representation the client holds, as If-None-Match named it. */
+    private ResponseEntity<Object> notModified(String matchedTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+            .eTag(matchedTag)
+            .varyBy(HttpHeaders.ACCEPT_ENCODING)
+            .build();
+    }
+
+    /** JSON body with its ETag, gzip-encoded (under the gzip variant tag) when large and accepted. */
+    private ResponseEntity<Object> tagged(String etag, byte[] json, String acceptEncoding) throws IOException {
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (json.length >= gzipMinBytes && EntityTags.acceptsGzip(acceptEncoding)) {
+            return ok.eTag(EntityTags.gzipVariant(etag))
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .body(EntityTags.gzip(json));
         }
+        return ok.eTag(etag).body(json);
     }
 }
@@ -2,6 +2,7 @@ package com.example.sf.controller;
 
 import com.example.sf.service.SalesforceApexService;
 import com.example.sf.service.SalesforceAuthService;
+import com.example.sf.service.SalesforceRequestScheduler;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
@@ -21,6 +22,7 @@ public class SalesforceController {
 
     private final SalesforceAuthService authService;
     private final SalesforceApexService apexService;
+    private final SalesforceRequestScheduler requestScheduler;
 
     @Value("${salesforce.clientId}")
     private String clientId;
@@ -34,9 +36,11 @@ public class SalesforceController {
     private String scope;
 
     public SalesforceController(SalesforceAuthService authService,
-                                SalesforceApexService apexService) {
+                                SalesforceApexService apexService,
+                                SalesforceRequestScheduler requestScheduler) {
         this.authService = authService;
         this.apexService = apexService;
+        this.requestScheduler = requestScheduler;
     }
 
     // STEP 1: USER OPENS /connect AND GOES TO SALESFORCE LOGIN    
@@ -72,6 +76,12 @@ public class SalesforceController {
         return authService.verifyApiAccess(token, instance).cast(Object.class);
     }
 
+    // Remaining API allocation (from Sforce-Limit-Info) and request admission state per org
+    @GetMapping("/api-usage")
+    public Mono<Map<String, Object>> apiUsage() {
+        return Mono.just(requestScheduler.usage());
+    }
+
     // STEP 2: SALESFORCE RETURNS TO /callback WITH "code"
     // Legacy callback path kept for compatibility
     @GetMapping({"/callback", "/oauth/callback"})
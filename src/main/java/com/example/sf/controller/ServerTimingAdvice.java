@@ -0,0 +1,99 @@
+package com.example.sf.controller;
+
+import com.example.sf.service.RequestTiming;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds the request's phase breakdown as a Server-Timing header to every response body. With
+ * ?timing=true it also goes into JSON object bodies as "serverTiming". Pre-serialized compare
+ * bodies get it spliced in, and their ETag is weakened because the bytes now differ between
+ * responses while the content does not. Gzipped ones are left alone and carry only the header.
+ */
+@ControllerAdvice
+public class ServerTimingAdvice implements ResponseBodyAdvice<Object> {
+
+    static final String HEADER = "Server-Timing";
+
+    private final ObjectMapper objectMapper;
+
+    public ServerTimingAdvice(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType contentType,
+                                  Class<? extends HttpMessageConverter<?>> converterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(request instanceof ServletServerHttpRequest servletRequest)) return body;
+        Object attribute = servletRequest.getServletRequest().getAttribute(ServerTimingFilter.ATTRIBUTE);
+        if (!(attribute instanceof RequestTiming timing)) return body;
+
+        response.getHeaders().set(HEADER, timing.header());
+        if (!"true".equalsIgnoreCase(servletRequest.getServletRequest().getParameter("timing"))
+                || !MediaType.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return body;
+        }
+
+        if (body instanceof Map<?, ?> map) {
+            Map<Object, Object> withTiming = new LinkedHashMap<>(map);
+            withTiming.put("serverTiming", timing.toMap());
+            return withTiming;
+        }
+        if (body instanceof byte[] json && !response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            byte[] spliced = splice(json, timing);
+            String etag = response.getHeaders().getETag();
+            if (spliced != json && etag != null && !etag.startsWith("W/")) {
+                weaken(response, "W/" + etag);
+            }
+            return spliced;
+        }
+        return body;
+    }
+
+    /** The not-modified check has already put the tag on the servlet response itself. */
+    private static void weaken(ServerHttpResponse response, String weakTag) {
+        response.getHeaders().setETag(weakTag);
+        if (response instanceof ServletServerHttpResponse servletResponse) {
+            servletResponse.getServletResponse().setHeader(HttpHeaders.ETAG, weakTag);
+        }
+    }
+
+    /** Insert "serverTiming" as the last field of a JSON object; anything else is returned as is. */
+    private byte[] splice(byte[] json, RequestTiming timing) {
+        int end = json.length - 1;
+        while (end >= 0 && Character.isWhitespace(json[end])) end--;
+        if (end < 1 || json[0] != '{' || json[end] != '}') return json;
+        int last = end - 1;
+        while (last >= 0 && Character.isWhitespace(json[last])) last--;
+        try {
+            byte[] field = ((json[last] == '{' ? "" : ",") + "\"serverTiming\":"
+                + objectMapper.writeValueAsString(timing.toMap()) + "}").getBytes(StandardCharsets.UTF_8);
+            byte[] out = Arrays.copyOf(json, end + field.length);
+            System.arraycopy(field, 0, out, end, field.length);
+            return out;
+        } catch (JsonProcessingException e) {
+            return json;
+        }
+    }
+}
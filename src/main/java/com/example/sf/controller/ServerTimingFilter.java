@@ -0,0 +1,42 @@
+package com.example.sf.controller;
+
+import com.example.sf.service.RequestTiming;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Binds a {@link RequestTiming} to every request thread. It is also kept as a request attribute,
+ * because Mono results are written in an async dispatch on another thread, after this filter
+ * has unbound it. {@link ServerTimingAdvice} turns it into the Server-Timing header.
+ */
+@Component
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    static final String ATTRIBUTE = RequestTiming.class.getName();
+
+    private final boolean enabled;
+
+    public ServerTimingFilter(@Value("${server-timing.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try (RequestTiming.Scope scope = RequestTiming.start()) {
+            request.setAttribute(ATTRIBUTE, scope.timing());
+            chain.doFilter(request, response);
+        }
+    }
+}
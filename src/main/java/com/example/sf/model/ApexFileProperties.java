@@ -0,0 +1,57 @@
+package com.example.sf.model;
+
+/**
+ * One FileProperties entry of a listMetadata response, with every field Salesforce returns.
+ * Dates are kept as the ISO-8601 strings of the response.
+ */
+public class ApexFileProperties {
+    private final String id;
+    private final String fullName;
+    private final String fileName;
+    private final String type;
+    private final String namespacePrefix;
+    private final String manageableState;
+    private final String createdById;
+    private final String createdByName;
+    private final String createdDate;
+    private final String lastModifiedById;
+    private final String lastModifiedByName;
+    private final String lastModifiedDate;
+
+    public ApexFileProperties(String id, String fullName, String fileName, String type,
+                              String namespacePrefix, String manageableState,
+                              String createdById, String createdByName, String createdDate,
+                              String lastModifiedById, String lastModifiedByName, String lastModifiedDate) {
+        this.id = id;
+        this.fullName = fullName;
+        this.fileName = fileName;
+        this.type = type;
+        this.namespacePrefix = namespacePrefix;
+        this.manageableState = manageableState;
+        this.createdById = createdById;
+        this.createdByName = createdByName;
+        this.createdDate = createdDate;
+        this.lastModifiedById = lastModifiedById;
+        this.lastModifiedByName = lastModifiedByName;
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    public String getId() { return id; }
+    public String getFullName() { return fullName; }
+    public String getFileName() { return fileName; }
+    public String getType() { return type; }
+    public String getNamespacePrefix() { return namespacePrefix; }
+    public String getManageableState() { return manageableState; }
+    public String getCreatedById() { return createdById; }
+    public String getCreatedByName() { return createdByName; }
+    public String getCreatedDate() { return createdDate; }
+    public String getLastModifiedById() { return lastModifiedById; }
+    public String getLastModifiedByName() { return lastModifiedByName; }
+    public String getLastModifiedDate() { return lastModifiedDate; }
+
+    /** Installed managed-package classes: their source cannot be retrieved. */
+    public boolean isManaged() {
+        return (namespacePrefix != null && !namespacePrefix.isBlank())
+            || "installed".equalsIgnoreCase(manageableState);
+    }
+}
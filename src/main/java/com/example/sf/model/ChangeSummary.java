@@ -0,0 +1,28 @@
+package com.example.sf.model;
+
+/**
+ * Totals across every class of the published snapshot.
+ */
+public class ChangeSummary {
+    private final int totalFiles;
+    private final int changedFiles;
+    private final int newFiles;
+    private final int unchangedFiles;
+    private final int totalChanges;
+
+    public ChangeSummary(int totalFiles, int changedFiles, int newFiles, int unchangedFiles, int totalChanges) {
+        this.totalFiles = totalFiles;
+        this.changedFiles = changedFiles;
+        this.newFiles = newFiles;
+        this.unchangedFiles = unchangedFiles;
+        this.totalChanges = totalChanges;
+    }
+
+    public int getTotalFiles() { return totalFiles; }
+    public int getChangedFiles() { return changedFiles; }
+    /** Classes without a previous version. */
+    public int getNewFiles() { return newFiles; }
+    public int getUnchangedFiles() { return unchangedFiles; }
+    /** Sum of the delta counts of changed classes. */
+    public int getTotalChanges() { return totalChanges; }
+}
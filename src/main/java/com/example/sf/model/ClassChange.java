@@ -0,0 +1,54 @@
+package com.example.sf.model;
+
+/**
+ * One Apex class that a stored retrieve added, modified, deleted or renamed compared with the
+ * snapshot it replaced. Hashes are SHA-256 of the class source, hex-encoded.
+ */
+public class ClassChange {
+
+    public static final String ADDED = "added";
+    public static final String MODIFIED = "modified";
+    public static final String DELETED = "deleted";
+    /** Deleted under previousName and added under className with the same source apart from the name. */
+    public static final String RENAMED = "renamed";
+
+    private final String type;
+    private final String className;
+    private final String previousName;
+    private final String hash;
+    private final String previousHash;
+
+    public ClassChange(String type, String className, String previousName, String hash, String previousHash) {
+        this.type = type;
+        this.className = className;
+        this.previousName = previousName;
+        this.hash = hash;
+        this.previousHash = previousHash;
+    }
+
+    public static ClassChange added(String className, String hash) {
+        return new ClassChange(ADDED, className, null, hash, null);
+    }
+
+    public static ClassChange modified(String className, String hash, String previousHash) {
+        return new ClassChange(MODIFIED, className, null, hash, previousHash);
+    }
+
+    public static ClassChange deleted(String className, String previousHash) {
+        return new ClassChange(DELETED, className, null, null, previousHash);
+    }
+
+    public static ClassChange renamed(String className, String previousName, String hash, String previousHash) {
+        return new ClassChange(RENAMED, className, previousName, hash, previousHash);
+    }
+
+    public String getType() { return type; }
+    /** Class name without .cls; for a deletion the name it had. */
+    public String getClassName() { return className; }
+    /** Name before a rename, else null. */
+    public String getPreviousName() { return previousName; }
+    /** Hash of the new source; null for a deletion. */
+    public String getHash() { return hash; }
+    /** Hash of the replaced source; null for an addition. */
+    public String getPreviousHash() { return previousHash; }
+}
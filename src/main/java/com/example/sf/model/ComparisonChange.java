@@ -0,0 +1,46 @@
+package com.example.sf.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * One delta of a class comparison. CHANGE deltas carry old and new lines; INSERT and DELETE
+ * carry the inserted or deleted lines as content.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"line", "type", "old", "new", "content"})
+public class ComparisonChange {
+    private final int line;
+    private final String type;
+    private final String old;
+    private final String replacement;
+    private final String content;
+
+    private ComparisonChange(int line, String type, String old, String replacement, String content) {
+        this.line = line;
+        this.type = type;
+        this.old = old;
+        this.replacement = replacement;
+        this.content = content;
+    }
+
+    public static ComparisonChange changed(int line, String old, String replacement) {
+        return new ComparisonChange(line, "CHANGE", old, replacement, null);
+    }
+
+    public static ComparisonChange inserted(int line, String content) {
+        return new ComparisonChange(line, "INSERT", null, null, content);
+    }
+
+    public static ComparisonChange deleted(int line, String content) {
+        return new ComparisonChange(line, "DELETE", null, null, content);
+    }
+
+    /** 1-based line in the previous version. */
+    public int getLine() { return line; }
+    /** CHANGE, INSERT or DELETE. */
+    public String getType() { return type; }
+    public String getOld() { return old; }
+    public String getNew() { return replacement; }
+    public String getContent() { return content; }
+}
@@ -0,0 +1,72 @@
+package com.example.sf.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of comparing one class with its previous version. Fields that do not apply to a
+ * status are null and left out of the JSON.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"fileName", "oldFile", "status", "message", "changeCount", "changes", "new"})
+public class ComparisonResult {
+
+    public static final String NO_NEW_FILE = "no_new_file";
+    public static final String NO_OLD_FILE = "no_old_file";
+    public static final String NO_CHANGES = "no_changes";
+    public static final String CHANGES_FOUND = "changes_found";
+    public static final String ERROR = "error";
+
+    private final String fileName;
+    private final String oldFile;
+    private final String status;
+    private final String message;
+    private final Integer changeCount;
+    private final List<ComparisonChange> changes;
+    private final String latestCode;
+
+    private ComparisonResult(String fileName, String oldFile, String status, String message,
+                             Integer changeCount, List<ComparisonChange> changes, String latestCode) {
+        this.fileName = fileName;
+        this.oldFile = oldFile;
+        this.status = status;
+        this.message = message;
+        this.changeCount = changeCount;
+        this.changes = changes;
+        this.latestCode = latestCode;
+    }
+
+    public static ComparisonResult noNewFile(String fileName) {
+        return new ComparisonResult(fileName, null, NO_NEW_FILE, "File not found in new/", null, Collections.emptyList(), null);
+    }
+
+    public static ComparisonResult noOldFile(String fileName, String latestCode) {
+        return new ComparisonResult(fileName, null, NO_OLD_FILE, "No previous version found in old/", 0, Collections.emptyList(), latestCode);
+    }
+
+    public static ComparisonResult noChanges(String fileName, String oldFile, String latestCode) {
+        return new ComparisonResult(fileName, oldFile, NO_CHANGES, "Files are identical", 0, Collections.emptyList(), latestCode);
+    }
+
+    public static ComparisonResult changesFound(String fileName, String oldFile, List<ComparisonChange> changes) {
+        return new ComparisonResult(fileName, oldFile, CHANGES_FOUND, null, changes.size(), Collections.unmodifiableList(changes), null);
+    }
+
+    public static ComparisonResult error(String fileName, String message) {
+        return new ComparisonResult(fileName, null, ERROR, message, null, Collections.emptyList(), null);
+    }
+
+    public String getFileName() { return fileName; }
+    /** Name of the archived file the class was compared with. */
+    public String getOldFile() { return oldFile; }
+    /** One of the status constants of this class. */
+    public String getStatus() { return status; }
+    public String getMessage() { return message; }
+    public Integer getChangeCount() { return changeCount; }
+    public List<ComparisonChange> getChanges() { return changes; }
+    /** Current source, sent when there is nothing to diff against or nothing changed. */
+    public String getNew() { return latestCode; }
+}
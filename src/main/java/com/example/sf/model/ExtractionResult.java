@@ -0,0 +1,58 @@
+package com.example.sf.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals reported by the extraction pipeline once every entry of a retrieved ZIP
+ * has been written (or archived) to storage.
+ */
+public class ExtractionResult {
+    private final Map<String, String> classes;
+    private final int extractedCount;
+    private final int archivedCount;
+    private final long bytesWritten;
+    private final long durationMillis;
+    private final String timestamp;
+    private final List<ClassChange> changes;
+    private final long generation;
+
+    public ExtractionResult(Map<String, String> classes, int extractedCount, int archivedCount,
+                            long bytesWritten, long durationMillis, String timestamp) {
+        this(classes, extractedCount, archivedCount, bytesWritten, durationMillis, timestamp, List.of());
+    }
+
+    public ExtractionResult(Map<String, String> classes, int extractedCount, int archivedCount,
+                            long bytesWritten, long durationMillis, String timestamp, List<ClassChange> changes) {
+        this(classes, extractedCount, archivedCount, bytesWritten, durationMillis, timestamp, changes, -1);
+    }
+
+    private ExtractionResult(Map<String, String> classes, int extractedCount, int archivedCount, long bytesWritten,
+                             long durationMillis, String timestamp, List<ClassChange> changes, long generation) {
+        this.classes = classes;
+        this.extractedCount = extractedCount;
+        this.archivedCount = archivedCount;
+        this.bytesWritten = bytesWritten;
+        this.durationMillis = durationMillis;
+        this.timestamp = timestamp;
+        this.changes = changes;
+        this.generation = generation;
+    }
+
+    /** This result as stored in snapshot generation. */
+    public ExtractionResult withGeneration(long generation) {
+        return new ExtractionResult(classes, extractedCount, archivedCount, bytesWritten, durationMillis, timestamp, changes, generation);
+    }
+
+    /** Class name (without .cls) to source, for every .cls entry in the ZIP. */
+    public Map<String, String> getClasses() { return classes; }
+    public int getExtractedCount() { return extractedCount; }
+    public int getArchivedCount() { return archivedCount; }
+    public long getBytesWritten() { return bytesWritten; }
+    public long getDurationMillis() { return durationMillis; }
+    public String getTimestamp() { return timestamp; }
+    /** Classes that differ from the snapshot this one replaced, by class name. */
+    public List<ClassChange> getChanges() { return changes; }
+    /** Snapshot generation the retrieve was stored as (the kept one if it was identical to it); -1 until stored. */
+    public long getGeneration() { return generation; }
+}
@@ -0,0 +1,37 @@
+package com.example.sf.model;
+
+/**
+ * On-disk record of a Metadata retrieve in progress, used to pick it up again after a restart.
+ */
+public class RetrieveCheckpoint {
+
+    /** checkRetrieveStatus is being polled. */
+    public static final String POLLING = "polling";
+    /** The ZIP is downloaded and kept next to the checkpoint; it is being stored as a snapshot. */
+    public static final String EXTRACTING = "extracting";
+
+    private final String asyncId;
+    private final String instanceUrl;
+    private final String token;
+    private final String phase;
+    private final long startedAt;
+
+    public RetrieveCheckpoint(String asyncId, String instanceUrl, String token, String phase, long startedAt) {
+        this.asyncId = asyncId;
+        this.instanceUrl = instanceUrl;
+        this.token = token;
+        this.phase = phase;
+        this.startedAt = startedAt;
+    }
+
+    public RetrieveCheckpoint withPhase(String phase) {
+        return new RetrieveCheckpoint(asyncId, instanceUrl, token, phase, startedAt);
+    }
+
+    public String getAsyncId() { return asyncId; }
+    public String getInstanceUrl() { return instanceUrl; }
+    /** Session used to poll; needed to resume polling after a restart. */
+    public String getToken() { return token; }
+    public String getPhase() { return phase; }
+    public long getStartedAt() { return startedAt; }
+}
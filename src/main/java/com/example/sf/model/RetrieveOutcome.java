@@ -0,0 +1,42 @@
+package com.example.sf.model;
+
+import java.util.Map;
+
+/**
+ * Result of a full-org retrieve-and-poll as handed to a caller, which may have started the
+ * retrieve itself, joined one already running for the org, or reused a recent one. A scheduled
+ * sync may also have skipped it as unchanged.
+ */
+public class RetrieveOutcome {
+
+    public static final String RETRIEVED = "retrieved";
+    public static final String JOINED = "joined";
+    public static final String CACHED = "cached";
+    /** No retrieve ran: the org's class listing showed nothing changed since the last one. */
+    public static final String UNCHANGED = "unchanged";
+
+    private final String retrieveId;
+    private final Map<String, String> classes;
+    private final long completedAt;
+    private final String source;
+
+    public RetrieveOutcome(String retrieveId, Map<String, String> classes, long completedAt, String source) {
+        this.retrieveId = retrieveId;
+        this.classes = classes;
+        this.completedAt = completedAt;
+        this.source = source;
+    }
+
+    /** Same retrieve as seen by another caller. */
+    public RetrieveOutcome withSource(String source) {
+        return new RetrieveOutcome(retrieveId, classes, completedAt, source);
+    }
+
+    public String getRetrieveId() { return retrieveId; }
+    /** Class name (without .cls) to source. */
+    public Map<String, String> getClasses() { return classes; }
+    /** Epoch millis at which the retrieve was stored. */
+    public long getCompletedAt() { return completedAt; }
+    /** One of {@link #RETRIEVED}, {@link #JOINED}, {@link #CACHED} or {@link #UNCHANGED}. */
+    public String getSource() { return source; }
+}
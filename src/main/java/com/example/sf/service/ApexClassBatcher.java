@@ -0,0 +1,170 @@
+package com.example.sf.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Coalesces single-class source lookups into multi-member retrieves and keeps the results in a
+ * TTL cache.
+ *
+ * The first lookup of an org opens a batch that closes after the batch window (or once it holds
+ * the maximum number of classes); every class requested meanwhile is fetched by the same
+ * retrieve. Callers asking for a class that is already queued wait on the same result. Warm
+ * entries are answered from memory without calling Salesforce.
+ */
+class ApexClassBatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApexClassBatcher.class);
+
+    /** Fetches the sources of several classes with one retrieve; missing classes are left out. */
+    @FunctionalInterface
+    interface BatchLoader {
+        Map<String, String> load(Collection<String> classNames, String token, String instanceUrl) throws Exception;
+    }
+
+    private final BatchLoader loader;
+    private final long windowMillis;
+    private final int maxBatch;
+    private final long ttlMillis;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    /** Lookups queued or being fetched, keyed like the cache; guarded by openBatches. */
+    private final Map<String, CompletableFuture<String>> pending = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "apex-class-batch-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService fetchers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "apex-class-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ApexClassBatcher(BatchLoader loader, long windowMillis, int maxBatch, long ttlMillis) {
+        this.loader = loader;
+        this.windowMillis = Math.max(0, windowMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.ttlMillis = ttlMillis;
+        if (ttlMillis > 0) {
+            timer.scheduleWithFixedDelay(this::evictExpired, ttlMillis, ttlMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Source of className in the org at instanceUrl, or null if the org has no such class. */
+    String get(String className, String token, String instanceUrl) throws Exception {
+        String org = RetrieveCoordinator.orgKey(instanceUrl);
+        String key = org + '|' + className;
+        Cached cached = cache.get(key);
+        if (cached != null && !cached.isExpired()) {
+            return cached.source;
+        }
+
+        CompletableFuture<String> result;
+        synchronized (openBatches) {
+            result = pending.get(key);
+            if (result == null) {
+                result = enqueue(org, className, key, token, instanceUrl);
+            }
+        }
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    /** Add a lookup to the org's open batch, opening one if needed; caller holds openBatches. */
+    private CompletableFuture<String> enqueue(String org, String className, String key, String token, String instanceUrl) {
+        Batch batch = openBatches.get(org);
+        if (batch == null) {
+            batch = new Batch(org, token, instanceUrl);
+            openBatches.put(org, batch);
+            Batch scheduled = batch;
+            timer.schedule(() -> flush(scheduled), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        batch.waiters.put(className, result);
+        pending.put(key, result);
+        if (batch.waiters.size() >= maxBatch) {
+            flush(batch);
+        }
+        return result;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (openBatches) {
+            if (!openBatches.remove(batch.org, batch)) return; // already flushed for size
+        }
+        fetchers.execute(() -> load(batch));
+    }
+
+    private void load(Batch batch) {
+        Set<String> names = batch.waiters.keySet();
+        long started = System.nanoTime();
+        try {
+            Map<String, String> sources = loader.load(names, batch.token, batch.instanceUrl);
+            long expiresAt = System.currentTimeMillis() + ttlMillis;
+            sources.forEach((name, source) -> {
+                if (ttlMillis > 0) cache.put(batch.org + '|' + name, new Cached(source, expiresAt));
+            });
+            batch.waiters.forEach((name, waiter) -> waiter.complete(sources.get(name)));
+            forget(batch);
+            LOG.info("📥 Fetched {}/{} classes in one retrieve ({} ms)", sources.size(), names.size(),
+                (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            LOG.warn("Batched class retrieve of {} classes failed: {}", names.size(), e.getMessage());
+            batch.waiters.values().forEach(waiter -> waiter.completeExceptionally(e));
+            forget(batch);
+        }
+    }
+
+    private void forget(Batch batch) {
+        synchronized (openBatches) {
+            batch.waiters.keySet().forEach(name -> pending.remove(batch.org + '|' + name));
+        }
+    }
+
+    private void evictExpired() {
+        cache.values().removeIf(Cached::isExpired);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        fetchers.shutdownNow();
+    }
+
+    private static final class Batch {
+        final String org;
+        final String token;
+        final String instanceUrl;
+        final Map<String, CompletableFuture<String>> waiters = new LinkedHashMap<>();
+
+        Batch(String org, String token, String instanceUrl) {
+            this.org = org;
+            this.token = token;
+            this.instanceUrl = instanceUrl;
+        }
+    }
+
+    private static final class Cached {
+        final String source;
+        final long expiresAt;
+
+        Cached(String source, long expiresAt) {
+            this.source = source;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
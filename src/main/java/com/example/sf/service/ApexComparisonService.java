@@ -1,16 +1,35 @@
 package com.example.sf.service;
 
+import com.example.sf.model.ChangeSummary;
+import com.example.sf.model.ComparisonChange;
+import com.example.sf.model.ComparisonResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.difflib.DiffUtils;
 import com.github.difflib.patch.AbstractDelta;
 import com.github.difflib.patch.Patch;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -19,55 +38,190 @@ public class ApexComparisonService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApexComparisonService.class);
 
-    private final Path newClassesDir = Path.of("storage", "apex", "new", "unpackaged", "classes");
-    private final Path oldClassesDir = Path.of("storage", "apex", "old", "unpackaged", "classes");
+    private final ObjectMapper objectMapper;
+    private final PipelineMetrics metrics;
+    private final int queryDefaultLimit;
+    private final int queryMaxLimit;
+    private final int batchMaxClasses;
+    private final ExecutorService batchPool;
+    /** Digest and result cache per snapshot store, i.e. per org. */
+    private final Map<ApexSnapshotStore, View> views = new ConcurrentHashMap<>();
+
+    public ApexComparisonService(ObjectMapper objectMapper,
+                                 PipelineMetrics metrics,
+                                 @Value("${compare.query.default-limit:100}") int queryDefaultLimit,
+                                 @Value("${compare.query.max-limit:1000}") int queryMaxLimit,
+                                 @Value("${compare.batch.max-classes:500}") int batchMaxClasses,
+                                 @Value("${compare.batch.parallelism:0}") int batchParallelism) {
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.queryMaxLimit = Math.max(1, queryMaxLimit);
+        this.queryDefaultLimit = Math.max(1, Math.min(queryDefaultLimit, this.queryMaxLimit));
+        this.batchMaxClasses = Math.max(1, batchMaxClasses);
+        int threads = batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger seq = new AtomicInteger();
+        this.batchPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "apex-compare-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        batchPool.shutdownNow();
+    }
+
+    // ETags and bodies take an opened generation, so a caller that computes both from the same
+    // one never tags a body with the hash of another generation.
 
     /**
-     * Find the latest timestamped archived file for a given class name.
-     * Pattern: ClassName_TIMESTAMP.cls
-     * Returns the file with the highest (most recent) timestamp.
+     * Strong ETag of {@link #compareFileJson} for generation: a hash of the generation id, the
+     * class and the previous version it is compared with. Only this class's two files are
+     * looked at, and they are only read if the snapshots do not know their hashes yet.
      */
-    private Path findLatestArchivedFile(String className) {
-        try {
-            if (!Files.exists(oldClassesDir)) {
-                return null;
-            }
+    public String compareFileTag(ApexSnapshotStore.Generation generation, String className) throws IOException {
+        String fileName = fileNameOf(className);
+        String pair = pairOf(generation, fileName);
+        return etag("file", fileName, String.valueOf(generation.id()), pair == null ? "missing" : pair);
+    }
 
-            String baseClassName = className.replace(".cls", "");
-            String pattern = baseClassName + "_";
-
-            // Find all files matching ClassName_*.cls
-            try (Stream<Path> paths = Files.list(oldClassesDir)) {
-                Optional<Path> latestFile = paths
-                    .filter(p -> {
-                        String name = p.getFileName().toString();
-                        return name.startsWith(pattern) && name.endsWith(".cls");
-                    })
-                    .max(Comparator.comparing(p -> {
-                        // Extract timestamp from filename: ClassName_TIMESTAMP.cls
-                        String name = p.getFileName().toString();
-                        try {
-                            int start = name.lastIndexOf('_') + 1;
-                            int end = name.lastIndexOf('.');
-                            if (start > 0 && end > start) {
-                                return Long.parseLong(name.substring(start, end));
-                            }
-                        } catch (Exception e) {
-                            LOG.warn("Unable to parse timestamp from filename: {}", name);
-                        }
-                        return 0L;
-                    }));
-
-                if (latestFile.isPresent()) {
-                    LOG.info("Found archived file for comparison: {}", latestFile.get().getFileName());
-                }
+    /** Strong ETag of {@link #compareAllJson}: a hash over every compared pair. */
+    public String compareAllTag(ApexSnapshotStore.Generation generation) throws IOException {
+        return etag("all", digest(generation).all);
+    }
 
-                return latestFile.orElse(null);
+    /** Strong ETag of {@link #getChangeSummary}. */
+    public String summaryTag(ApexSnapshotStore.Generation generation) throws IOException {
+        return etag("summary", digest(generation).all);
+    }
+
+    /** Strong ETag of {@link #queryJson} for the same parameters. */
+    public String queryTag(ApexSnapshotStore.Generation generation, String status, String name, Integer limit, String cursor) throws IOException {
+        return etag("query", digest(generation).all, String.valueOf(status), String.valueOf(name),
+            String.valueOf(limit), String.valueOf(cursor));
+    }
+
+    /**
+     * The digest pair of one class in generation, or null if it has no current source: taken
+     * from the generation's digest when that exists, else from the class's own two files, so one
+     * class never costs a digest of the whole org.
+     */
+    private String pairOf(ApexSnapshotStore.Generation generation, String fileName) throws IOException {
+        GenerationDigest known = view(generation.store()).digest.get();
+        if (known != null && known.generation == generation.id()) {
+            return known.pairs.get(fileName);
+        }
+        Path newFile = generation.current().classesDir().resolve(fileName);
+        if (!Files.exists(newFile)) return null;
+        Path oldFile = findPreviousVersion(generation.previous(), fileName);
+        String oldHash = oldFile == null ? "-" : oldFile.getFileName() + ":" + generation.previous().classHash(oldFile);
+        return generation.current().classHash(newFile) + "/" + oldHash;
+    }
+
+    private View view(ApexSnapshotStore store) {
+        return views.computeIfAbsent(store, s -> new View());
+    }
+
+    /**
+     * Content hashes of an opened generation, computed once per generation: for every class, the
+     * hash of its current source and of the previous version it is compared with. File hashes
+     * come from the snapshots, which carry them over from sync to sync, so this lists the two
+     * snapshots but only reads files no sync has hashed yet. The digest of the latest generation
+     * is kept; a reader still on an older one gets its own.
+     */
+    private GenerationDigest digest(ApexSnapshotStore.Generation generation) throws IOException {
+        View view = view(generation.store());
+        GenerationDigest known = view.digest.get();
+        if (known != null && known.generation == generation.id()) {
+            return known;
+        }
+        synchronized (view.digest) {
+            known = view.digest.get();
+            if (known != null && known.generation == generation.id()) {
+                return known;
             }
-        } catch (Exception e) {
-            LOG.error("Error finding archived file for {}: {}", className, e.getMessage());
-            return null;
+            NavigableMap<String, String> pairs = new TreeMap<>();
+            List<Path> newFiles = listClasses(generation.current());
+            Set<String> fileNames = new HashSet<>();
+            for (Path newFile : newFiles) fileNames.add(newFile.getFileName().toString());
+            // One listing of the old snapshot for all classes rather than one per class
+            Map<String, Path> previousVersions = previousVersions(generation.previous(), fileNames);
+            for (Path newFile : newFiles) {
+                String fileName = newFile.getFileName().toString();
+                Path oldFile = previousVersions.get(fileName.replace(".cls", ""));
+                String oldHash = oldFile == null ? "-" : oldFile.getFileName() + ":" + generation.previous().classHash(oldFile);
+                pairs.put(fileName, generation.current().classHash(newFile) + "/" + oldHash);
+            }
+            StringBuilder all = new StringBuilder();
+            pairs.forEach((name, pair) -> all.append(name).append('=').append(pair).append('\n'));
+            GenerationDigest computed = new GenerationDigest(generation.id(), pairs, sha256(all.toString()));
+            if (known == null || known.generation < computed.generation) {
+                view.digest.set(computed);
+                // Results of pairs that are no longer published are not served again
+                Set<String> live = new HashSet<>();
+                pairs.forEach((name, pair) -> live.add(name + "=" + pair));
+                view.serialized.keySet().retainAll(live);
+            }
+            return computed;
+        }
+    }
+
+    private static String etag(String... parts) {
+        return "\"" + sha256(String.join("|", parts)).substring(0, 32) + "\"";
+    }
+
+    private static String sha256(String text) {
+        return HexFormat.of().formatHex(newSha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Comparison state of one snapshot store. */
+    private static final class View {
+        final AtomicReference<GenerationDigest> digest = new AtomicReference<>();
+        /** Serialized results keyed by "fileName=pair" (see {@link GenerationDigest#pairs}), so they survive syncs that leave a class alone. */
+        final Map<String, Serialized> serialized = new ConcurrentHashMap<>();
+    }
+
+    private static final class GenerationDigest {
+        final long generation;
+        /** fileName → "newHash/oldFileName:oldHash", or "newHash/-" without a previous version */
+        final NavigableMap<String, String> pairs;
+        final String all;
+
+        GenerationDigest(long generation, NavigableMap<String, String> pairs, String all) {
+            this.generation = generation;
+            this.pairs = pairs;
+            this.all = all;
+        }
+    }
+
+    /**
+     * The previous version of one class in the old snapshot, by the same rule as
+     * {@link #previousVersions}: the latest ClassName_TIMESTAMP.cls archive, else ClassName.cls.
+     */
+    private Path findPreviousVersion(ApexSnapshotStore.Snapshot previous, String className) throws IOException {
+        String fileName = fileNameOf(className);
+        if (!previous.isTimestampedArchive()) {
+            // Zip snapshots hold the whole previous retrieve under the classes' own names
+            Path file = previous.classesDir().resolve(fileName);
+            return Files.exists(file) ? file : null;
         }
+        return previousVersions(previous, Set.of(fileName)).get(fileName.replace(".cls", ""));
+    }
+
+    /** The old file a digest pair was hashed from, null for "newHash/-" or an unknown class. */
+    private static Path previousFileOf(ApexSnapshotStore.Snapshot previous, String pair) {
+        if (pair == null) return null;
+        String oldSide = pair.substring(pair.indexOf('/') + 1);
+        return "-".equals(oldSide) ? null : previous.classesDir().resolve(oldSide.substring(0, oldSide.lastIndexOf(':')));
     }
 
     /**
@@ -75,186 +229,592 @@ public class ApexComparisonService {
      * Input: class name without .cls extension
      * Returns detailed line-by-line changes.
      */
-    public Map<String, Object> compareFile(String className) throws IOException {
-        Map<String, Object> result = new LinkedHashMap<>();
-        
-        // Add .cls extension if not present
-        String fileName = className.endsWith(".cls") ? className : className + ".cls";
-        result.put("fileName", fileName);
+    public ComparisonResult compareFile(ApexSnapshotStore store, String className) throws IOException {
+        // One generation for both sides, so a concurrent sync cannot pair new and old from different retrieves
+        try (ApexSnapshotStore.Generation generation = store.open()) {
+            return compareFile(className, generation.current(), generation.previous());
+        }
+    }
+
+    /** {@link #compareFile} as UTF-8 JSON, serialized once per compared pair of files. */
+    public byte[] compareFileJson(ApexSnapshotStore store, String className) throws IOException {
+        try (ApexSnapshotStore.Generation generation = store.open()) {
+            return compareFileJson(generation, className);
+        }
+    }
+
+    /** {@link #compareFileJson(ApexSnapshotStore, String)} for an opened generation. */
+    public byte[] compareFileJson(ApexSnapshotStore.Generation generation, String className) throws IOException {
+        String fileName = fileNameOf(className);
+        return serialized(view(generation.store()), fileName, pairOf(generation, fileName), generation).json;
+    }
 
-        // Build paths
-        Path newFile = newClassesDir.resolve(fileName);
+    private ComparisonResult compareFile(String className, ApexSnapshotStore.Snapshot current,
+                                         ApexSnapshotStore.Snapshot previous) throws IOException {
+        Path oldFile = findPreviousVersion(previous, className);
+        return compareFile(className, current, name -> oldFile);
+    }
 
+    /** previousVersion maps a class name (without .cls) to the file it is compared with, or null. */
+    private ComparisonResult compareFile(String className, ApexSnapshotStore.Snapshot current,
+                                         Function<String, Path> previousVersion) throws IOException {
+        String fileName = fileNameOf(className);
+        Path newFile = current.classesDir().resolve(fileName);
+        long started = System.nanoTime();
+        ComparisonResult result = compareFile(className, fileName, newFile, previousVersion);
+        metrics.current().compared(result.getStatus(), System.nanoTime() - started);
+        return result;
+    }
+
+    private ComparisonResult compareFile(String className, String fileName, Path newFile,
+                                         Function<String, Path> previousVersion) throws IOException {
         // Check if new file exists
         if (!Files.exists(newFile)) {
-            result.put("status", "no_new_file");
-            result.put("message", "File not found in new/");
-            result.put("changes", Collections.emptyList());
-            return result;
+            return ComparisonResult.noNewFile(fileName);
         }
 
         // Find the latest timestamped version in old/ directory
         // Pattern: ClassName_TIMESTAMP.cls (e.g., TestApexClass_1764354995352.cls)
-        Path oldFile = findLatestArchivedFile(className);
+        Path oldFile = previousVersion.apply(className);
 
         // Read new file content (always include in response)
+        RequestTiming timing = RequestTiming.current();
+        long readStarted = System.nanoTime();
+        PipelineEvents.ReadClass readNew = new PipelineEvents.ReadClass();
+        readNew.begin();
         String latestCode = Files.readString(newFile);
+        readNew.finish(className, fileName, latestCode);
+        timing.add(RequestTiming.DISK, System.nanoTime() - readStarted);
         
         // Check if old file exists
         if (oldFile == null || !Files.exists(oldFile)) {
-            result.put("status", "no_old_file");
-            result.put("message", "No previous version found in old/");
-            result.put("changeCount", 0);
-            result.put("changes", Collections.emptyList());
-            result.put("new", latestCode);
-            return result;
+            return ComparisonResult.noOldFile(fileName, latestCode);
         }
         
-        result.put("oldFile", oldFile.getFileName().toString()); // Show which archived file is being compared
+        String oldFileName = oldFile.getFileName().toString(); // Show which archived file is being compared
 
         // Read file contents safely
+        readStarted = System.nanoTime();
         List<String> newLines = Files.readAllLines(newFile);
+        PipelineEvents.ReadClass readOld = new PipelineEvents.ReadClass();
+        readOld.begin();
         List<String> oldLines = Files.readAllLines(oldFile);
+        readOld.finish(className, oldFileName, oldLines);
+        long diffStarted = System.nanoTime();
+        timing.add(RequestTiming.DISK, diffStarted - readStarted);
 
         // Handle empty files
         if (newLines == null) newLines = Collections.emptyList();
         if (oldLines == null) oldLines = Collections.emptyList();
 
         // Generate diff
+        PipelineEvents.DiffClass diffEvent = new PipelineEvents.DiffClass();
+        diffEvent.begin();
         Patch<String> patch = DiffUtils.diff(oldLines, newLines);
         List<AbstractDelta<String>> deltas = patch.getDeltas();
 
         if (deltas.isEmpty()) {
-            result.put("status", "no_changes");
-            result.put("message", "Files are identical");
-            result.put("changeCount", 0);
-            result.put("changes", Collections.emptyList());
-            result.put("new", latestCode);
-            return result;
+            diffEvent.finish(className, oldLines.size(), newLines.size(), 0);
+            timing.add(RequestTiming.DIFF, System.nanoTime() - diffStarted);
+            return ComparisonResult.noChanges(fileName, oldFileName, latestCode);
         }
 
         // Format changes
-        List<Map<String, Object>> changes = new ArrayList<>();
+        List<ComparisonChange> changes = new ArrayList<>(deltas.size());
         for (AbstractDelta<String> delta : deltas) {
-            Map<String, Object> change = new LinkedHashMap<>();
-            
             int lineNumber = delta.getSource().getPosition() + 1; // 1-based line number
-            change.put("line", lineNumber);
-            
-            String changeType = delta.getType().toString(); // CHANGE, INSERT, DELETE
-            change.put("type", changeType);
-            
             List<String> oldContent = delta.getSource().getLines();
             List<String> newContent = delta.getTarget().getLines();
             
             // Add content based on change type
-            if (changeType.equals("CHANGE")) {
-                if (!oldContent.isEmpty()) {
-                    change.put("old", String.join("\n", oldContent));
-                }
-                if (!newContent.isEmpty()) {
-                    change.put("new", String.join("\n", newContent));
-                }
-            } else if (changeType.equals("INSERT")) {
-                change.put("content", String.join("\n", newContent));
-            } else if (changeType.equals("DELETE")) {
-                change.put("content", String.join("\n", oldContent));
+            switch (delta.getType()) {
+                case CHANGE -> changes.add(ComparisonChange.changed(lineNumber,
+                    oldContent.isEmpty() ? null : String.join("\n", oldContent),
+                    newContent.isEmpty() ? null : String.join("\n", newContent)));
+                case INSERT -> changes.add(ComparisonChange.inserted(lineNumber, String.join("\n", newContent)));
+                case DELETE -> changes.add(ComparisonChange.deleted(lineNumber, String.join("\n", oldContent)));
+                default -> { }
             }
-            
-            changes.add(change);
         }
 
-        result.put("status", "changes_found");
-        result.put("changeCount", changes.size());
-        result.put("changes", changes);
-        // result.put("new", latestCode);
-
-        return result;
+        diffEvent.finish(className, oldLines.size(), newLines.size(), changes.size());
+        timing.add(RequestTiming.DIFF, System.nanoTime() - diffStarted);
+        return ComparisonResult.changesFound(fileName, oldFileName, changes);
     }
 
     /**
      * Compare all .cls files between new/ and old/ folders.
      * Returns an array of comparison results for each file.
      */
-    public List<Map<String, Object>> compareAll() throws IOException {
-        List<Map<String, Object>> results = new ArrayList<>();
-
-        if (!Files.exists(newClassesDir)) {
-            LOG.warn("new/unpackaged/classes/ directory does not exist");
+    public List<ComparisonResult> compareAll(ApexSnapshotStore store) throws IOException {
+        // One generation for both sides, so a concurrent sync cannot pair new and old from different retrieves
+        try (ApexSnapshotStore.Generation generation = store.open()) {
+            List<ComparisonResult> results = new ArrayList<>();
+            List<Path> newFiles = listClasses(generation.current());
+            Set<String> fileNames = new HashSet<>();
+            for (Path newFile : newFiles) fileNames.add(newFile.getFileName().toString());
+            Map<String, Path> previousVersions = previousVersions(generation.previous(), fileNames);
+            OperationProgress progress = OperationProgress.current();
+            progress.phase("diffing");
+            progress.diffTotal(newFiles.size());
+            for (Path newFile : newFiles) {
+                String fileName = newFile.getFileName().toString();
+                try {
+                    results.add(compareFile(fileName.replace(".cls", ""), generation.current(), previousVersions::get));
+                } catch (Exception e) {
+                    results.add(ComparisonResult.error(fileName, "Comparison failed: " + e.getMessage()));
+                }
+                progress.diffed();
+            }
             return results;
         }
+    }
+
+    /** {@link #compareAll} as a UTF-8 JSON array assembled from the cached per-class results. */
+    public byte[] compareAllJson(ApexSnapshotStore store) throws IOException {
+        try (ApexSnapshotStore.Generation generation = store.open()) {
+            return compareAllJson(generation);
+        }
+    }
+
+    /** {@link #compareAllJson(ApexSnapshotStore)} for an opened generation. */
+    public byte[] compareAllJson(ApexSnapshotStore.Generation generation) throws IOException {
+        List<Serialized> results = serializedAll(generation);
+        int size = results.size() + 2;
+        for (Serialized result : results) size += result.json.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('[');
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) out.write(',');
+            out.write(results.get(i).json);
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private List<Serialized> serializedAll(ApexSnapshotStore.Generation generation) throws IOException {
+        View view = view(generation.store());
+        GenerationDigest known = digest(generation);
+        List<Serialized> results = new ArrayList<>(known.pairs.size());
+        OperationProgress progress = OperationProgress.current();
+        progress.phase("diffing");
+        progress.diffTotal(known.pairs.size());
+        for (String fileName : known.pairs.keySet()) {
+            try {
+                results.add(serialized(view, fileName, known.pairs.get(fileName), generation));
+            } catch (Exception e) {
+                results.add(serialize(ComparisonResult.error(fileName, "Comparison failed: " + e.getMessage())));
+            }
+            progress.diffed();
+        }
+        return results;
+    }
+
+    /**
+     * The serialized result for one class, from the cache when its pair of files in generation
+     * is known (see {@link GenerationDigest#pairs}). The class is compared with the old file the
+     * pair was hashed from, so the result always matches its cache key and ETag.
+     */
+    private Serialized serialized(View view, String fileName, String pair,
+                                  ApexSnapshotStore.Generation generation) throws IOException {
+        Path oldFile = previousFileOf(generation.previous(), pair);
+        return serialized(view, fileName, pair, generation, name -> oldFile);
+    }
+
+    private Serialized serialized(View view, String fileName, String pair, ApexSnapshotStore.Generation generation,
+                                  Function<String, Path> previousVersion) throws IOException {
+        String key = pair == null ? null : fileName + "=" + pair;
+        if (key != null) {
+            Serialized cached = view.serialized.get(key);
+            if (cached != null) return cached;
+        }
+        Serialized result = serialize(compareFile(fileName.replace(".cls", ""), generation.current(), previousVersion));
+        if (key != null) view.serialized.put(key, result);
+        return result;
+    }
+
+    private Serialized serialize(ComparisonResult result) throws IOException {
+        int changeCount = result.getChangeCount() == null ? 0 : result.getChangeCount();
+        long started = System.nanoTime();
+        byte[] json = objectMapper.writeValueAsBytes(result);
+        RequestTiming.current().add(RequestTiming.SERIALIZE, System.nanoTime() - started);
+        return new Serialized(result.getStatus(), changeCount, json);
+    }
 
-        // Find all .cls files in new/
-        try (Stream<Path> paths = Files.list(newClassesDir)) {
-            List<Path> newFiles = paths
+    /** The .cls files of a snapshot, by name. */
+    private List<Path> listClasses(ApexSnapshotStore.Snapshot snapshot) throws IOException {
+        Path classesDir = snapshot.classesDir();
+        if (!Files.exists(classesDir)) {
+            LOG.warn("new/unpackaged/classes/ directory does not exist");
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.list(classesDir)) {
+            return paths
                 .filter(p -> p.toString().endsWith(".cls"))
+                .sorted()
                 .collect(Collectors.toList());
+        }
+    }
 
-            for (Path newFile : newFiles) {
-                String fileName = newFile.getFileName().toString();
-                String className = fileName.replace(".cls", "");
-                
+    private static String fileNameOf(String className) {
+        return className.endsWith(".cls") ? className : className + ".cls";
+    }
+
+    /**
+     * One page of comparison results, in class name order, as UTF-8 JSON:
+     * {"results": [...], "count": n, "nextCursor": "..." or null}.
+     *
+     * status is a comma-separated list of result statuses to keep, name a class name prefix or a
+     * glob with * and ? (case-insensitive, as Apex names are), cursor the nextCursor of the
+     * previous page. Classes are ruled out by name and by the content hashes of the generation
+     * digest before anything is read, so only candidates for the page are diffed.
+     */
+    public byte[] queryJson(ApexSnapshotStore.Generation generation, String status, String name, Integer limit, String cursor) throws IOException {
+        Set<String> statuses = parseStatuses(status);
+        Pattern namePattern = parseNamePattern(name);
+        int pageSize = limit == null ? queryDefaultLimit : Math.max(1, Math.min(limit, queryMaxLimit));
+        String after = cursor == null || cursor.isBlank() ? null : decodeCursor(cursor);
+
+        View view = view(generation.store());
+        GenerationDigest known = digest(generation);
+        List<Serialized> page = new ArrayList<>();
+        String last = null;
+        boolean more = false;
+        NavigableMap<String, String> pairs = known.pairs;
+        NavigableSet<String> names = pairs.navigableKeySet();
+        for (String fileName : after == null ? names : names.tailSet(after, false)) {
+            if (namePattern != null && !namePattern.matcher(fileName.replace(".cls", "")).matches()) continue;
+            if (statuses != null && !mayHaveStatus(pairs.get(fileName), statuses)) continue;
+            if (page.size() == pageSize) {
+                more = true;
+                break;
+            }
+            Serialized result;
+            try {
+                result = serialized(view, fileName, known.pairs.get(fileName), generation);
+            } catch (Exception e) {
+                result = serialize(ComparisonResult.error(fileName, "Comparison failed: " + e.getMessage()));
+            }
+            if (statuses == null || statuses.contains(result.status)) {
+                page.add(result);
+                last = fileName;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) out.write(',');
+            out.write(page.get(i).json);
+        }
+        out.write(("],\"count\":" + page.size() + ",\"nextCursor\":").getBytes(StandardCharsets.UTF_8));
+        out.write(objectMapper.writeValueAsBytes(more ? encodeCursor(last) : null));
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    /**
+     * Whether a class can end up with one of statuses, judged from its digest pair alone:
+     * equal hashes can only compare as no_changes and a missing previous version only as
+     * no_old_file. Differing hashes usually mean changes_found, but line-ending-only edits
+     * compare as no_changes.
+     */
+    private static boolean mayHaveStatus(String pair, Set<String> statuses) {
+        if (pair == null || statuses.contains(ComparisonResult.ERROR)) return true;
+        int slash = pair.indexOf('/');
+        String newHash = pair.substring(0, slash);
+        String old = pair.substring(slash + 1);
+        if (old.equals("-")) return statuses.contains(ComparisonResult.NO_OLD_FILE);
+        if (old.endsWith(":" + newHash)) return statuses.contains(ComparisonResult.NO_CHANGES);
+        return statuses.contains(ComparisonResult.CHANGES_FOUND) || statuses.contains(ComparisonResult.NO_CHANGES);
+    }
+
+    private static Set<String> parseStatuses(String status) {
+        if (status == null || status.isBlank()) return null;
+        Set<String> known = Set.of(ComparisonResult.NO_OLD_FILE, ComparisonResult.NO_CHANGES,
+            ComparisonResult.CHANGES_FOUND, ComparisonResult.ERROR);
+        Set<String> statuses = new HashSet<>();
+        for (String s : status.split(",")) {
+            String trimmed = s.trim().toLowerCase(Locale.ROOT);
+            if (!known.contains(trimmed)) {
+                throw new IllegalArgumentException("Unknown status '" + s.trim() + "', expected one of " + new TreeSet<>(known));
+            }
+            statuses.add(trimmed);
+        }
+        return statuses;
+    }
+
+    /** A name without * or ? is a prefix. */
+    private static Pattern parseNamePattern(String name) {
+        if (name == null || name.isBlank()) return null;
+        String glob = name.trim().replace(".cls", "");
+        if (glob.indexOf('*') < 0 && glob.indexOf('?') < 0) glob += "*";
+        StringBuilder regex = new StringBuilder();
+        for (String literal : glob.split("(?=[*?])|(?<=[*?])")) {
+            switch (literal) {
+                case "*" -> regex.append(".*");
+                case "?" -> regex.append('.');
+                default -> regex.append(Pattern.quote(literal));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String encodeCursor(String fileName) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(fileName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    /**
+     * Compare an explicit list of classes as UTF-8 JSON: {"results": [...], "count": n, "failed": k}.
+     *
+     * Previous versions are resolved with one listing of the old snapshot and the classes are
+     * diffed in parallel. A class that cannot be compared gets an "error" result; the others
+     * are still returned. Results keep the order of classNames.
+     */
+    public byte[] compareBatchJson(ApexSnapshotStore store, List<String> classNames) throws IOException {
+        Set<String> fileNames = new LinkedHashSet<>();
+        if (classNames != null) {
+            for (String className : classNames) {
+                if (className != null && !className.isBlank()) fileNames.add(fileNameOf(className.trim()));
+            }
+        }
+        if (fileNames.isEmpty()) {
+            throw new IllegalArgumentException("No class names given");
+        }
+        if (fileNames.size() > batchMaxClasses) {
+            throw new IllegalArgumentException("At most " + batchMaxClasses + " classes per batch, got " + fileNames.size());
+        }
+
+        View view = view(store);
+        List<Serialized> results = new ArrayList<>(fileNames.size());
+        try (ApexSnapshotStore.Generation generation = store.open()) {
+            GenerationDigest known = digest(generation);
+            Map<String, Path> previousVersions = previousVersions(generation.previous(), fileNames);
+            List<CompletableFuture<Serialized>> diffs = new ArrayList<>(fileNames.size());
+            for (String fileName : fileNames) {
+                diffs.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return serialized(view, fileName, known.pairs.get(fileName), generation, previousVersions::get);
+                    } catch (Exception e) {
+                        return serializeError(fileName, e);
+                    }
+                }, batchPool));
+            }
+            // The generation stays open until every diff is done
+            for (CompletableFuture<Serialized> diff : diffs) {
+                results.add(diff.join());
+            }
+        }
+
+        int failed = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) out.write(',');
+            out.write(results.get(i).json);
+            if (ComparisonResult.ERROR.equals(results.get(i).status)) failed++;
+        }
+        out.write(("],\"count\":" + results.size() + ",\"failed\":" + failed + "}").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private Serialized serializeError(String fileName, Exception e) {
+        try {
+            return serialize(ComparisonResult.error(fileName, "Comparison failed: " + e.getMessage()));
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
+    }
+
+    /**
+     * Previous versions of the given classes from a single listing of the old snapshot, keyed
+     * by class name without .cls: the latest ClassName_TIMESTAMP.cls archive, else ClassName.cls.
+     */
+    private Map<String, Path> previousVersions(ApexSnapshotStore.Snapshot previous, Set<String> fileNames) throws IOException {
+        Map<String, Path> versions = new HashMap<>();
+        Path classesDir = previous.classesDir();
+        if (!Files.exists(classesDir)) {
+            return versions;
+        }
+        Map<String, Long> archivedAt = new HashMap<>();
+        try (Stream<Path> paths = Files.list(classesDir)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".cls")) continue;
+                if (fileNames.contains(name)) {
+                    versions.putIfAbsent(name.replace(".cls", ""), file);
+                    continue;
+                }
+                if (!previous.isTimestampedArchive()) continue;
+                int underscore = name.lastIndexOf('_');
+                String stamp = name.substring(underscore + 1, name.length() - ".cls".length());
+                if (underscore <= 0 || stamp.isEmpty() || !stamp.chars().allMatch(Character::isDigit)) continue;
+                String className = name.substring(0, underscore);
+                if (!fileNames.contains(className + ".cls")) continue;
+                long timestamp = Long.parseLong(stamp);
+                Long latest = archivedAt.get(className);
+                if (latest == null || timestamp > latest) {
+                    archivedAt.put(className, timestamp);
+                    versions.put(className, file);
+                }
+            }
+        }
+        return versions;
+    }
+
+    /** Strong ETag of {@link #compareOrgsJson} for the same parameters. */
+    public String compareOrgsTag(ApexSnapshotStore.Generation source, ApexSnapshotStore.Generation target, String name) throws IOException {
+        return etag("orgs", digest(source).all, digest(target).all, String.valueOf(name));
+    }
+
+    /**
+     * Compare the current snapshot of one org (source, e.g. a sandbox) with that of another
+     * (target, e.g. production) as UTF-8 JSON:
+     * {"matched": n, "identical": i, "changed": c, "failed": f, "onlyInSource": [...],
+     * "onlyInTarget": [...], "results": [...]}.
+     *
+     * Classes are matched by name, case-insensitively as Apex names are, and name narrows them
+     * like in {@link #queryJson}. Classes whose content hashes in the two generation digests
+     * are equal are counted as identical without being read; the rest are diffed in parallel,
+     * with the target's version as the old side. results holds the changes_found and error
+     * results, in class name order.
+     */
+    public byte[] compareOrgsJson(ApexSnapshotStore.Generation sourceGeneration, ApexSnapshotStore.Generation targetGeneration,
+                                  String name) throws IOException {
+        if (sourceGeneration.store() == targetGeneration.store()) {
+            throw new IllegalArgumentException("Source and target are the same org");
+        }
+        Pattern namePattern = parseNamePattern(name);
+        NavigableMap<String, String> sourcePairs = digest(sourceGeneration).pairs;
+        NavigableMap<String, String> targetPairs = digest(targetGeneration).pairs;
+
+        int identical = 0;
+        List<String> onlyInSource = new ArrayList<>();
+        List<String> onlyInTarget = new ArrayList<>();
+        List<Serialized> results = new ArrayList<>();
+        NavigableSet<String> sourceNames = sourcePairs.navigableKeySet();
+        NavigableSet<String> targetNames = targetPairs.navigableKeySet();
+        Map<String, String> targetByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String fileName : targetNames) {
+            if (namePattern == null || namePattern.matcher(fileName.replace(".cls", "")).matches()) {
+                targetByName.put(fileName, fileName);
+            }
+        }
+
+        List<CompletableFuture<Serialized>> diffs = new ArrayList<>();
+        Path sourceDir = sourceGeneration.current().classesDir();
+        Path targetDir = targetGeneration.current().classesDir();
+        for (String fileName : sourceNames) {
+            if (namePattern != null && !namePattern.matcher(fileName.replace(".cls", "")).matches()) continue;
+            String targetName = targetByName.remove(fileName);
+            if (targetName == null) {
+                onlyInSource.add(fileName.replace(".cls", ""));
+                continue;
+            }
+            if (contentHash(sourcePairs.get(fileName)).equals(contentHash(targetPairs.get(targetName)))) {
+                identical++;
+                continue;
+            }
+            Path sourceFile = sourceDir.resolve(fileName);
+            Path targetFile = targetDir.resolve(targetName);
+            diffs.add(CompletableFuture.supplyAsync(() -> {
                 try {
-                    Map<String, Object> comparison = compareFile(className);
-                    results.add(comparison);
+                    return compareAcrossOrgs(fileName, sourceFile, targetFile);
                 } catch (Exception e) {
-                    Map<String, Object> error = new LinkedHashMap<>();
-                    error.put("fileName", fileName);
-                    error.put("status", "error");
-                    error.put("message", "Comparison failed: " + e.getMessage());
-                    error.put("changes", Collections.emptyList());
-                    results.add(error);
+                    return serializeError(fileName, e);
                 }
-            }
+            }, batchPool));
+        }
+        targetByName.values().forEach(fileName -> onlyInTarget.add(fileName.replace(".cls", "")));
+        // The caller keeps both generations open until every diff is done
+        for (CompletableFuture<Serialized> diff : diffs) {
+            Serialized result = diff.join();
+            if (ComparisonResult.NO_CHANGES.equals(result.status)) identical++;
+            else results.add(result);
         }
 
-        return results;
+        int changed = 0;
+        int failed = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Serialized result : results) {
+            if (ComparisonResult.ERROR.equals(result.status)) failed++;
+            else changed++;
+        }
+        out.write(("{\"matched\":" + (identical + results.size()) + ",\"identical\":" + identical
+            + ",\"changed\":" + changed + ",\"failed\":" + failed + ",\"onlyInSource\":").getBytes(StandardCharsets.UTF_8));
+        out.write(objectMapper.writeValueAsBytes(onlyInSource));
+        out.write(",\"onlyInTarget\":".getBytes(StandardCharsets.UTF_8));
+        out.write(objectMapper.writeValueAsBytes(onlyInTarget));
+        out.write(",\"results\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) out.write(',');
+            out.write(results.get(i).json);
+        }
+        out.write("]}".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    /** One class of the source org diffed against the target org's version of it. */
+    private Serialized compareAcrossOrgs(String fileName, Path sourceFile, Path targetFile) throws IOException {
+        long started = System.nanoTime();
+        ComparisonResult result = compareFile(fileName.replace(".cls", ""), fileName, sourceFile, name -> targetFile);
+        metrics.current().compared(result.getStatus(), System.nanoTime() - started);
+        return serialize(result);
+    }
+
+    /** The hash of the current source in a digest pair, null for an unknown class. */
+    private static String contentHash(String pair) {
+        return pair == null ? null : pair.substring(0, pair.indexOf('/'));
     }
 
     /**
      * Get summary statistics of changes across all files.
      */
-    public Map<String, Object> getChangeSummary() throws IOException {
-        Map<String, Object> summary = new LinkedHashMap<>();
-        
-        if (!Files.exists(newClassesDir)) {
-            summary.put("totalFiles", 0);
-            summary.put("changedFiles", 0);
-            summary.put("newFiles", 0);
-            summary.put("unchangedFiles", 0);
-            summary.put("totalChanges", 0);
-            return summary;
+    public ChangeSummary getChangeSummary(ApexSnapshotStore.Generation generation) throws IOException {
+        if (!Files.exists(generation.current().classesDir())) {
+            return new ChangeSummary(0, 0, 0, 0, 0);
         }
 
-        List<Map<String, Object>> allComparisons = compareAll();
+        List<Serialized> allComparisons = serializedAll(generation);
         
-        int totalFiles = allComparisons.size();
         int changedFiles = 0;
         int newFiles = 0;
         int unchangedFiles = 0;
         int totalChanges = 0;
 
-        for (Map<String, Object> comparison : allComparisons) {
-            String status = (String) comparison.get("status");
-            if ("changes_found".equals(status)) {
-                changedFiles++;
-                Object changeCountObj = comparison.get("changeCount");
-                if (changeCountObj instanceof Integer) {
-                    totalChanges += (Integer) changeCountObj;
+        for (Serialized comparison : allComparisons) {
+            switch (comparison.status) {
+                case ComparisonResult.CHANGES_FOUND -> {
+                    changedFiles++;
+                    totalChanges += comparison.changeCount;
                 }
-            } else if ("no_old_file".equals(status)) {
-                newFiles++;
-            } else if ("no_changes".equals(status)) {
-                unchangedFiles++;
+                case ComparisonResult.NO_OLD_FILE -> newFiles++;
+                case ComparisonResult.NO_CHANGES -> unchangedFiles++;
+                default -> { }
             }
         }
 
-        summary.put("totalFiles", totalFiles);
-        summary.put("changedFiles", changedFiles);
-        summary.put("newFiles", newFiles);
-        summary.put("unchangedFiles", unchangedFiles);
-        summary.put("totalChanges", totalChanges);
+        return new ChangeSummary(allComparisons.size(), changedFiles, newFiles, unchangedFiles, totalChanges);
+    }
 
-        return summary;
+    /** A result as served: its JSON, plus the fields summaries need without parsing it. */
+    private static final class Serialized {
+        final String status;
+        final int changeCount;
+        final byte[] json;
+
+        Serialized(String status, int changeCount, byte[] json) {
+            this.status = status;
+            this.changeCount = changeCount;
+            this.json = json;
+        }
     }
 }
@@ -1,12 +1,18 @@
 package com.example.sf.service;
 
+import com.example.sf.util.ApexIdIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,43 +21,150 @@ import org.slf4j.LoggerFactory;
 public class ApexFileStorageService {
 
     private final Path storagePath;
-    private final Path newPath;
-    private final Path oldPath;
+    private final ApexSnapshotStore snapshotStore;
+    private final ApexIdIndex rootIndex;
+    // new/old indexes follow the published snapshot generation and are swapped when it changes
+    private volatile ApexIdIndex newIndex;
+    private volatile ApexIdIndex oldIndex;
+    private volatile long indexedGeneration;
+    private final Map<WatchKey, ApexIdIndex> watchedDirs = new ConcurrentHashMap<>();
+    private WatchService watcher;
     private static final Logger LOG = LoggerFactory.getLogger(ApexFileStorageService.class);
 
-    public ApexFileStorageService(@Value("${storage.apex.path:storage/apex}") String storageDir) throws IOException {
+    public ApexFileStorageService(@Value("${storage.apex.path:storage/apex}") String storageDir,
+                                  ApexSnapshotStore snapshotStore) throws IOException {
         this.storagePath = Path.of(storageDir);
+        this.snapshotStore = snapshotStore;
         if (!Files.exists(storagePath)) {
             Files.createDirectories(storagePath);
         }
-        this.newPath = storagePath.resolve("new");
-        this.oldPath = storagePath.resolve("old");
+        Path newPath = snapshotStore.newDirectory();
+        Path oldPath = snapshotStore.oldDirectory();
         if (!Files.exists(newPath)) Files.createDirectories(newPath);
         if (!Files.exists(oldPath)) Files.createDirectories(oldPath);
+        this.rootIndex = new ApexIdIndex(storagePath);
+        this.newIndex = new ApexIdIndex(newPath);
+        this.oldIndex = new ApexIdIndex(oldPath);
+        this.indexedGeneration = snapshotStore.generationId();
     }
 
     /**
-     * Read stored apex class body by apexId (file named {apexId}_{name}.cls)
+     * Build the apexId indexes from disk and watch the storage folders so files added or
+     * removed outside the app are picked up.
      */
-    public Optional<String> readByApexId(String apexId) {
-        try (var stream = Files.list(storagePath)) {
-            return stream
-                .filter(p -> p.getFileName().toString().startsWith(apexId + "_") && p.toString().endsWith(".cls"))
-                .findFirst()
-                .map(path -> {
-                    try {
-                        return Files.readString(path, StandardCharsets.UTF_8);
-                    } catch (IOException ex) {
-                        LOG.warn("Failed to read apex file {}: {}", path.getFileName(), ex.getMessage(), ex);
-                        return null;
-                    }
-                });
+    @PostConstruct
+    public void startIndex() throws IOException {
+        for (ApexIdIndex index : List.of(rootIndex, newIndex, oldIndex)) {
+            index.rebuild();
+        }
+        LOG.info("Indexed {} stored, {} new and {} old apex files", rootIndex.size(), newIndex.size(), oldIndex.size());
+
+        try {
+            watcher = storagePath.getFileSystem().newWatchService();
+            for (ApexIdIndex index : List.of(rootIndex, newIndex, oldIndex)) {
+                watch(index);
+            }
+            Thread t = new Thread(this::watchLoop, "apex-index-watcher");
+            t.setDaemon(true);
+            t.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.warn("Storage watcher unavailable, apexId index only tracks changes made by this service: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stopIndex() {
+        if (watcher != null) {
+            try { watcher.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Point the new/old indexes at the published generation if a sync or rotation replaced it. */
+    private synchronized void followGeneration() {
+        long generation = snapshotStore.generationId();
+        if (generation == indexedGeneration) return;
+        ApexIdIndex freshNew = new ApexIdIndex(snapshotStore.newDirectory());
+        ApexIdIndex freshOld = new ApexIdIndex(snapshotStore.oldDirectory());
+        try {
+            Files.createDirectories(freshNew.getDirectory());
+            freshNew.rebuild();
+            freshOld.rebuild();
         } catch (IOException e) {
-            LOG.warn("Error finding file for apexId={}: {}", apexId, e.getMessage(), e);
-            return Optional.empty();
+            LOG.warn("Failed to index snapshot generation {}: {}", generation, e.getMessage());
+        }
+        watchedDirs.values().removeIf(index -> index == newIndex || index == oldIndex);
+        newIndex = freshNew;
+        oldIndex = freshOld;
+        indexedGeneration = generation;
+        watch(freshNew);
+        watch(freshOld);
+    }
+
+    private void watch(ApexIdIndex index) {
+        if (watcher == null) return;
+        try {
+            WatchKey key = index.getDirectory().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirs.put(key, index);
+        } catch (Exception e) {
+            LOG.warn("Unable to watch {}: {}", index.getDirectory(), e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                ApexIdIndex index = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (index == null) continue;
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        index.rebuild();
+                        continue;
+                    }
+                    Path file = index.getDirectory().resolve((Path) event.context());
+                    // Check the disk rather than trusting the event: our own rotations replace files by name
+                    if (Files.isRegularFile(file)) {
+                        index.put(file);
+                    } else {
+                        index.remove(file);
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirs.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // shutting down
+        } catch (Exception e) {
+            LOG.warn("apexId index watcher stopped: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * Read stored apex class body by apexId (file named {apexId}_{name}.cls)
+     */
+    public Optional<String> readByApexId(String apexId) {
+        return readIndexed(rootIndex, apexId);
+    }
+
+    private Optional<String> readIndexed(ApexIdIndex index, String apexId) {
+        return index.get(apexId).map(path -> {
+            long started = System.nanoTime();
+            try {
+                return Files.readString(path, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException ex) {
+                index.remove(path);
+                return null;
+            } catch (IOException ex) {
+                LOG.warn("Failed to read apex file {}: {}", path.getFileName(), ex.getMessage(), ex);
+                return null;
+            } finally {
+                diskTime(started);
+            }
+        });
+    }
+
     /**
      * Save apex class file. Always saves.  
      * File name: {apexId}_{safeName}.cls  
@@ -59,6 +172,7 @@ public class ApexFileStorageService {
      * - Deletes old file if name changed (different safeName)
      */
     public boolean save(String apexId, String name, String body) {
+        long started = System.nanoTime();
         try {
             String safeName = (name == null ? "unknown" :
                     name.replaceAll("[^a-zA-Z0-9_\\-]", "_"));
@@ -84,6 +198,7 @@ public class ApexFileStorageService {
             // 📝 Always write new content
             Files.writeString(target, newContent, StandardCharsets.UTF_8,
                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            rootIndex.put(target);
 
             LOG.info("Saved file {} ({} bytes)", fileName, Files.size(target));
             return true;
@@ -91,31 +206,8 @@ public class ApexFileStorageService {
         } catch (Exception e) {
             LOG.error("Failed to save apex file for id={} name={}: {}", apexId, name, e.getMessage(), e);
             return false;
-        }
-    }
-
-    /**
-     * Save class into the `new` folder instead of root storage (used for retrieve+compare flows).
-     */
-    public boolean saveToNew(String apexId, String name, String body) {
-        try {
-            String safeName = (name == null ? "unknown" : name.replaceAll("[^a-zA-Z0-9_\\-]", "_"));
-            String fileName = apexId + "_" + safeName + ".cls";
-            Path target = newPath.resolve(fileName);
-
-            String newContent = (body == null ? "" : body);
-
-            // ensure directory
-            if (!Files.exists(newPath)) Files.createDirectories(newPath);
-
-            Files.writeString(target, newContent, java.nio.charset.StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
-            LOG.info("Saved new file {} ({} bytes)", fileName, Files.size(target));
-            return true;
-        } catch (Exception e) {
-            LOG.error("Failed to save new apex file for id={} name={}: {}", apexId, name, e.getMessage(), e);
-            return false;
+        } finally {
+            diskTime(started);
         }
     }
 
@@ -123,22 +215,8 @@ public class ApexFileStorageService {
      * Read class content from the `old` folder by apexId.
      */
     public Optional<String> readOldByApexId(String apexId) {
-        try (var stream = Files.list(oldPath)) {
-            return stream
-                    .filter(p -> p.getFileName().toString().startsWith(apexId + "_") && p.toString().endsWith(".cls"))
-                    .findFirst()
-                    .map(path -> {
-                        try {
-                            return Files.readString(path, java.nio.charset.StandardCharsets.UTF_8);
-                        } catch (IOException ex) {
-                            LOG.warn("Failed to read old apex file {}: {}", path.getFileName(), ex.getMessage(), ex);
-                            return null;
-                        }
-                    });
-        } catch (IOException e) {
-            LOG.warn("Error finding old file for apexId={}: {}", apexId, e.getMessage(), e);
-            return Optional.empty();
-        }
+        followGeneration();
+        return readIndexed(oldIndex, apexId);
     }
 
     /**
@@ -146,6 +224,7 @@ public class ApexFileStorageService {
      * Used by the simplified retrieve-all flow.
      */
     public boolean saveFlatCls(String className, String body) {
+        long started = System.nanoTime();
         try {
             String safeName = (className == null ? "unknown" : className.replaceAll("[^a-zA-Z0-9_\\-]", "_"));
             String fileName = safeName + ".cls";
@@ -161,45 +240,26 @@ public class ApexFileStorageService {
         } catch (Exception e) {
             LOG.error("Failed to save flat cls file for class={}: {}", className, e.getMessage(), e);
             return false;
+        } finally {
+            diskTime(started);
         }
     }
 
+    private static void diskTime(long started) {
+        RequestTiming.current().add(RequestTiming.DISK, System.nanoTime() - started);
+    }
+
     /**
-     * After comparison, rotate `new` into `old` (delete old contents and move new files into old).
+     * After comparison, rotate `new` into `old`: the current new snapshot becomes old and an
+     * empty one becomes new. Only the snapshot pointer is rewritten.
      */
     public void rotateNewToOld() {
         try {
-            // delete old files
-            if (Files.exists(oldPath)) {
-                try (var s = Files.list(oldPath)) {
-                    s.forEach(p -> {
-                        try { Files.deleteIfExists(p); } catch (Exception ignored) {}
-                    });
-                }
-            } else {
-                Files.createDirectories(oldPath);
-            }
-
-            // move new files to old
-            if (Files.exists(newPath)) {
-                try (var s = Files.list(newPath)) {
-                    s.forEach(p -> {
-                        try {
-                            Path dest = oldPath.resolve(p.getFileName());
-                            Files.move(p, dest, StandardCopyOption.REPLACE_EXISTING);
-                        } catch (Exception ignored) {}
-                    });
-                }
-            }
-
-            // ensure new dir exists empty
-            if (Files.exists(newPath)) {
-                // already moved files out; ensure directory empty
-            } else {
-                Files.createDirectories(newPath);
-            }
+            snapshotStore.rotate();
         } catch (Exception e) {
             LOG.warn("rotateNewToOld failed: {}", e.getMessage(), e);
+        } finally {
+            followGeneration();
         }
     }
 
@@ -208,20 +268,17 @@ public class ApexFileStorageService {
      * remove old file to avoid multiple old versions being stored.
      */
     private void deleteOldNameFiles(String apexId, String expectedFileName) {
-        try (var stream = Files.list(storagePath)) {
-            stream.filter(p ->
-                    p.getFileName().toString().startsWith(apexId + "_") &&
-                    !p.getFileName().toString().equals(expectedFileName) &&
-                    p.getFileName().toString().endsWith(".cls")
-            ).forEach(old -> {
+        rootIndex.get(apexId)
+            .filter(old -> !old.getFileName().toString().equals(expectedFileName))
+            .ifPresent(old -> {
                 try {
                     Files.deleteIfExists(old);
+                    rootIndex.remove(old);
                     LOG.info("Removed old class file {}", old.getFileName());
                 } catch (IOException ex) {
                     LOG.warn("Failed to delete old file {}: {}", old, ex.getMessage());
                 }
             });
-        } catch (IOException ignored) {}
     }
 
     /**
@@ -236,14 +293,17 @@ public class ApexFileStorageService {
      * Returns null if no files exist or apiVersion cannot be determined.
      */
     public String readApiVersionFromNew() {
-        try {
-            Path newDir = storagePath.resolve("new");
+        try (ApexSnapshotStore.Snapshot snapshot = snapshotStore.openNew()) {
+            Path newDir = snapshot.root();
             if (!Files.exists(newDir)) return null;
             
             // Find first .cls-meta.xml file recursively
-            Optional<Path> metaFile = Files.walk(newDir)
-                .filter(p -> p.toString().endsWith(".cls-meta.xml"))
-                .findFirst();
+            Optional<Path> metaFile;
+            try (var files = Files.walk(newDir)) {
+                metaFile = files
+                    .filter(p -> p.toString().endsWith(".cls-meta.xml"))
+                    .findFirst();
+            }
             
             if (metaFile.isPresent()) {
                 String content = Files.readString(metaFile.get(), StandardCharsets.UTF_8);
@@ -261,74 +321,17 @@ public class ApexFileStorageService {
     }
 
     /**
-     * Move all files from storage/apex/new/ to storage/apex/old/
-     * This archives the previous version before retrieving new classes.
+     * Archive storage/apex/new/ as the old snapshot before retrieving new classes. The previous
+     * old snapshot is deleted in the background once no reader uses it.
      */
     public void archiveNewToOld() {
         try {
-            Path newDir = storagePath.resolve("new");
-            Path oldDir = storagePath.resolve("old");
-            
-            // Ensure old directory exists
-            if (!Files.exists(oldDir)) {
-                Files.createDirectories(oldDir);
-            }
-            
-            // Delete all existing files in old/
-            if (Files.exists(oldDir)) {
-                Files.walk(oldDir)
-                    .sorted(java.util.Comparator.reverseOrder())
-                    .forEach(p -> {
-                        try {
-                            Files.deleteIfExists(p);
-                        } catch (Exception ignored) {}
-                    });
-                // Recreate old directory
-                Files.createDirectories(oldDir);
-            }
-            
-            // Move all files from new/ to old/ recursively
-            if (Files.exists(newDir)) {
-                Files.walk(newDir)
-                    .filter(p -> !p.equals(newDir)) // Don't move the directory itself
-                    .sorted(java.util.Comparator.naturalOrder())
-                    .forEach(source -> {
-                        try {
-                            Path relative = newDir.relativize(source);
-                            Path target = oldDir.resolve(relative);
-                            
-                            if (Files.isDirectory(source)) {
-                                Files.createDirectories(target);
-                            } else {
-                                // Ensure parent directory exists
-                                Path parent = target.getParent();
-                                if (parent != null && !Files.exists(parent)) {
-                                    Files.createDirectories(parent);
-                                }
-                                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
-                            }
-                        } catch (Exception e) {
-                            LOG.warn("Failed to move {}: {}", source, e.getMessage());
-                        }
-                    });
-                
-                // Clean up empty directories in new/
-                Files.walk(newDir)
-                    .sorted(java.util.Comparator.reverseOrder())
-                    .filter(p -> !p.equals(newDir))
-                    .forEach(p -> {
-                        try {
-                            Files.deleteIfExists(p);
-                        } catch (Exception ignored) {}
-                    });
-                
-                // Recreate new directory
-                Files.createDirectories(newDir);
-                
-                LOG.info("✅ Archived all files from new/ to old/");
-            }
+            snapshotStore.rotate();
+            LOG.info("✅ Archived all files from new/ to old/");
         } catch (Exception e) {
             LOG.error("Failed to archive new/ to old/: {}", e.getMessage(), e);
+        } finally {
+            followGeneration();
         }
     }
 }
@@ -0,0 +1,612 @@
+package com.example.sf.service;
+
+import com.example.sf.model.ClassChange;
+import com.example.sf.model.ExtractionResult;
+import com.example.sf.util.LazySourceMap;
+import com.example.sf.util.ZipFileSystemCache;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Owns the layout of the retrieved snapshots under storage/apex.
+ *
+ * In the default "directory" mode every retrieve is exploded into a directory and changed files
+ * are archived with a timestamp into the old snapshot. In "zip" mode each retrieve is kept as its
+ * original archive and the old snapshot is the previous retrieve; reads go through a mounted
+ * jdk.zipfs file system, so a snapshot is a single file to write, move and delete.
+ *
+ * Snapshots are versioned. The CURRENT pointer file names the new and old snapshot of the
+ * published generation; a sync builds fresh snapshots under snapshots/ and publishes them by
+ * atomically renaming a new pointer over CURRENT. Readers open a {@link Generation} without
+ * locking and keep seeing it until they close it; snapshots no longer referenced are deleted in
+ * the background once their last reader is done. Before the first sync the legacy new/ and old/
+ * folders (new.zip and old.zip in zip mode) are the published generation.
+ */
+@Service
+public class ApexSnapshotStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApexSnapshotStore.class);
+
+    private static final String CLASSES_PATH = "unpackaged/classes";
+    private static final String POINTER_FILE = "CURRENT";
+    private static final String SNAPSHOTS_DIR = "snapshots";
+    private static final String NO_CLASSES_MESSAGE = "Metadata retrieve returned no Apex class files. " +
+        "Likely causes: the sessionId used for the Metadata API does not have Metadata permissions, or the connected app scopes do not include API/metadata access. " +
+        "Ensure the OAuth token has the required scopes (e.g., 'api' or 'full'), the user has permission to retrieve metadata, and retry using a session with Metadata API access.";
+
+    private final Path storageRoot;
+    private final boolean zipMode;
+    private final ZipExtractionPipeline extractionPipeline;
+    private final ZipFileSystemCache mounts;
+    private final AtomicReference<Generation> published = new AtomicReference<>();
+    private final Map<Path, SnapshotRef> refs = new HashMap<>();
+    private final Object publishLock = new Object();
+    private final AtomicInteger snapshotSeq = new AtomicInteger();
+    private final ExecutorService reaper = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "apex-snapshot-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ApexSnapshotStore(@Value("${storage.apex.path:storage/apex}") String storageDir,
+                             @Value("${storage.apex.snapshot-mode:directory}") String snapshotMode,
+                             @Value("${storage.apex.snapshot.open-archives:4}") int openArchives,
+                             ZipExtractionPipeline extractionPipeline) throws IOException {
+        this.storageRoot = Path.of(storageDir);
+        this.zipMode = "zip".equalsIgnoreCase(snapshotMode);
+        this.extractionPipeline = extractionPipeline;
+        this.mounts = new ZipFileSystemCache(openArchives);
+        Files.createDirectories(storageRoot.resolve(SNAPSHOTS_DIR));
+        published.set(readPointer());
+        removeUnreferencedSnapshots();
+        LOG.info("Apex snapshots stored under {} in {} mode (generation {})",
+            storageRoot.toAbsolutePath(), zipMode ? "zip" : "directory", published.get().id);
+    }
+
+    public boolean isZipMode() {
+        return zipMode;
+    }
+
+    /** Id of the published generation; changes on every sync or rotation. */
+    public long generationId() {
+        return published.get().id;
+    }
+
+    /** Folder of the published new snapshot (directory mode; legacy new/ in zip mode). */
+    public Path newDirectory() {
+        Path path = published.get().newRef.path;
+        return isArchive(path) ? storageRoot.resolve("new") : path;
+    }
+
+    /** Folder of the published old snapshot (directory mode; legacy old/ in zip mode). */
+    public Path oldDirectory() {
+        Path path = published.get().oldRef.path;
+        return isArchive(path) ? storageRoot.resolve("old") : path;
+    }
+
+    /**
+     * Open the published generation. Both snapshots stay readable, and consistent with each
+     * other, until the returned generation is closed.
+     */
+    public Generation open() throws IOException {
+        while (true) {
+            Generation generation = published.get();
+            if (generation.newRef.tryAcquire()) {
+                if (generation.oldRef.tryAcquire()) {
+                    try {
+                        return generation.opened(mount(generation.newRef, false), mount(generation.oldRef, !zipMode));
+                    } catch (IOException | RuntimeException ex) {
+                        release(generation.oldRef);
+                        release(generation.newRef);
+                        throw ex;
+                    }
+                }
+                release(generation.newRef);
+            }
+            // Lost a race with a publish that already reaped this generation; take the next one
+        }
+    }
+
+    /** Open only the latest snapshot; shorthand for reads that do not need the old one. */
+    public Snapshot openNew() throws IOException {
+        Generation generation = open();
+        return new Snapshot(generation.current().root, false, generation.newRef.classHashes, generation::close);
+    }
+
+    private Snapshot mount(SnapshotRef ref, boolean timestampedArchive) throws IOException {
+        if (isArchive(ref.path) && Files.exists(ref.path)) {
+            ZipFileSystemCache.Lease lease = mounts.open(ref.path);
+            return new Snapshot(lease.root(), false, ref.classHashes, lease::close);
+        }
+        // A missing snapshot (nothing retrieved yet) reads as empty: its root does not exist
+        return new Snapshot(ref.path, timestampedArchive, ref.classHashes, null);
+    }
+
+    /**
+     * Store a completed retrieve as a new generation.
+     *
+     * Directory mode extracts into a staging snapshot, comparing against the published one, and
+     * archives changed files into a staging copy of the old snapshot (hard links, so the copy is
+     * cheap). Zip mode keeps the archive itself as the new snapshot and the published new one
+     * becomes old, unless the retrieve is identical (same entries and CRCs) to it. Either way the
+     * new generation is published with a single atomic rename.
+     *
+     * A retrieve without any class files is refused before anything is published: it almost
+     * always means missing permissions rather than an org without classes, and publishing it
+     * would retire the snapshots it replaces.
+     */
+    public ExtractionResult save(RetrievePayload payload) throws Exception {
+        return save(payload, result -> { });
+    }
+
+    /**
+     * {@link #save(RetrievePayload)}, then hand the result, with the generation it was stored as,
+     * to onStored before the next retrieve can be stored. Whatever onStored records per retrieve
+     * is therefore in generation order.
+     */
+    public ExtractionResult save(RetrievePayload payload, Consumer<ExtractionResult> onStored) throws Exception {
+        synchronized (publishLock) {
+            ExtractionResult result = (zipMode ? saveArchive(payload) : saveDirectory(payload))
+                .withGeneration(published.get().id);
+            onStored.accept(result);
+            return result;
+        }
+    }
+
+    private ExtractionResult saveDirectory(RetrievePayload payload) throws Exception {
+        Generation base = published.get();
+        Path stagingNew = newSnapshotPath("");
+        Path stagingOld = newSnapshotPath("");
+        try {
+            linkTree(base.oldRef.path, stagingOld);
+            ExtractionResult result = payload.extractTo(extractionPipeline, base.newRef.path, stagingNew, stagingOld);
+            if (result.getClasses().isEmpty()) {
+                throw noClasses();
+            }
+            Generation next = publish(base, stagingNew, stagingOld);
+            inheritClassHashes(base.newRef, next.newRef, result);
+            inheritArchiveHashes(base.oldRef, next.oldRef, result);
+            return result;
+        } catch (Exception ex) {
+            deleteSnapshot(stagingNew);
+            deleteSnapshot(stagingOld);
+            throw ex;
+        }
+    }
+
+    private ExtractionResult saveArchive(RetrievePayload payload) throws Exception {
+        long started = System.nanoTime();
+        Generation base = published.get();
+        Path incoming = newSnapshotPath(".zip");
+        payload.transferTo(incoming);
+        // Taken now: an identical retrieve is deleted below, and there may be no published archive yet
+        long archiveBytes = Files.size(incoming);
+
+        Map<String, Long> incomingCrcs = entryCrcs(incoming);
+        if (incomingCrcs.keySet().stream().noneMatch(name -> ClassChangeCollector.classNameOf(name) != null)) {
+            Files.deleteIfExists(incoming);
+            throw noClasses();
+        }
+        Map<String, Long> currentCrcs = Files.exists(base.newRef.path) ? entryCrcs(base.newRef.path) : Map.of();
+        int changed = 0;
+        for (Map.Entry<String, Long> e : incomingCrcs.entrySet()) {
+            if (!e.getValue().equals(currentCrcs.get(e.getKey()))) changed++;
+        }
+
+        List<ClassChange> changes = archiveChanges(incoming, incomingCrcs, base.newRef.path, currentCrcs);
+
+        Set<String> classNames = new LinkedHashSet<>();
+        for (String name : incomingCrcs.keySet()) {
+            if (name.endsWith(".cls")) {
+                String file = name.substring(name.lastIndexOf('/') + 1);
+                classNames.add(file.substring(0, file.length() - ".cls".length()));
+            }
+        }
+        Map<String, String> classes = new LazySourceMap(classNames, this::readNewClass);
+        long durationMillis = (System.nanoTime() - started) / 1_000_000;
+        ExtractionResult result = new ExtractionResult(classes, incomingCrcs.size(), changed, archiveBytes,
+            durationMillis, String.valueOf(System.currentTimeMillis()), changes);
+
+        if (changed == 0 && incomingCrcs.size() == currentCrcs.size()) {
+            Files.deleteIfExists(incoming);
+            LOG.info("Retrieve identical to current snapshot {}; keeping generation {}", base.newRef.path, base.id);
+        } else {
+            Generation next = publish(base, incoming, base.newRef.path);
+            // The old snapshot is the previous new one and keeps its hashes
+            inheritClassHashes(base.newRef, next.newRef, result);
+            LOG.info("📦 Stored retrieve as {} ({} changed entries, previous snapshot kept as old)",
+                incoming.toAbsolutePath(), changed);
+        }
+        return result;
+    }
+
+    /**
+     * Seed the class hashes of a new snapshot from the retrieve that built it: changed classes
+     * have theirs in the result's changes, the others are identical to the snapshot it replaced.
+     * So a compare after a sync only hashes files that were never hashed before (all of them once
+     * after a restart).
+     */
+    private static void inheritClassHashes(SnapshotRef replaced, SnapshotRef next, ExtractionResult result) {
+        for (String className : result.getClasses().keySet()) {
+            String hash = replaced.classHashes.get(className + ".cls");
+            if (hash != null) next.classHashes.put(className + ".cls", hash);
+        }
+        for (ClassChange change : result.getChanges()) {
+            if (change.getHash() != null) next.classHashes.put(change.getClassName() + ".cls", change.getHash());
+        }
+    }
+
+    /**
+     * Seed the class hashes of a staged old snapshot (directory mode): it links every file of the
+     * replaced one, minus the earlier archives of modified classes, plus their new
+     * ClassName_TIMESTAMP.cls archive, which holds the source the change's previous hash is of.
+     */
+    private static void inheritArchiveHashes(SnapshotRef replaced, SnapshotRef next, ExtractionResult result) {
+        next.classHashes.putAll(replaced.classHashes);
+        for (ClassChange change : result.getChanges()) {
+            if (!ClassChange.MODIFIED.equals(change.getType())) continue;
+            String prefix = change.getClassName() + "_";
+            next.classHashes.keySet().removeIf(name -> name.startsWith(prefix) && name.endsWith(".cls")
+                && name.substring(prefix.length(), name.length() - ".cls".length()).chars().allMatch(Character::isDigit));
+            next.classHashes.put(prefix + result.getTimestamp() + ".cls", change.getPreviousHash());
+        }
+    }
+
+    /** Class changes between the current snapshot archive and an incoming one, told apart by entry CRCs. */
+    private static List<ClassChange> archiveChanges(Path incoming, Map<String, Long> incomingCrcs,
+                                                    Path current, Map<String, Long> currentCrcs) throws IOException {
+        ClassChangeCollector changes = new ClassChangeCollector();
+        try (ZipFile in = new ZipFile(incoming.toFile());
+             ZipFile previous = currentCrcs.isEmpty() ? null : new ZipFile(current.toFile())) {
+            for (Map.Entry<String, Long> entry : incomingCrcs.entrySet()) {
+                String name = entry.getKey();
+                String className = ClassChangeCollector.classNameOf(name);
+                if (className == null) continue;
+                Long previousCrc = currentCrcs.get(name);
+                if (previousCrc == null) {
+                    changes.added(className, entryBytes(in, name), () -> entryBytes(in, name));
+                } else if (!previousCrc.equals(entry.getValue())) {
+                    changes.modified(className, entryBytes(in, name), entryBytes(previous, name));
+                }
+            }
+            for (String name : currentCrcs.keySet()) {
+                String className = ClassChangeCollector.classNameOf(name);
+                if (className != null && !incomingCrcs.containsKey(name)) {
+                    changes.deleted(className, entryBytes(previous, name), () -> entryBytes(previous, name));
+                }
+            }
+            // Renames are paired while both archives are still open
+            return changes.changes();
+        }
+    }
+
+    private static RetrieveFailedException noClasses() {
+        LOG.error(NO_CLASSES_MESSAGE);
+        return new RetrieveFailedException(NO_CLASSES_MESSAGE);
+    }
+
+    private static byte[] entryBytes(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Archive the published new snapshot: it becomes the old one and an empty snapshot becomes
+     * new. Only the pointer is rewritten; the retired old snapshot is deleted in the background.
+     */
+    public void rotate() throws IOException {
+        synchronized (publishLock) {
+            Generation base = published.get();
+            Path empty = newSnapshotPath(zipMode ? ".zip" : "");
+            if (!zipMode) Files.createDirectories(empty);
+            publish(base, empty, base.newRef.path);
+        }
+    }
+
+    /**
+     * Write the pointer for (newPath, oldPath), rename it over CURRENT and retire what base
+     * referenced. Returns the published generation.
+     */
+    private Generation publish(Generation base, Path newPath, Path oldPath) throws IOException {
+        long id = base.id + 1;
+        Properties pointer = new Properties();
+        pointer.setProperty("generation", String.valueOf(id));
+        pointer.setProperty("new", storageRoot.relativize(newPath).toString());
+        pointer.setProperty("old", storageRoot.relativize(oldPath).toString());
+
+        Path tmp = storageRoot.resolve(POINTER_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            pointer.store(out, "Published apex snapshot generation");
+        }
+        Files.move(tmp, storageRoot.resolve(POINTER_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Generation next = new Generation(id, ref(newPath), ref(oldPath));
+        published.set(next);
+        for (SnapshotRef retired : List.of(base.newRef, base.oldRef)) {
+            if (retired != next.newRef && retired != next.oldRef) {
+                retire(retired);
+            }
+        }
+        LOG.info("Published snapshot generation {} (new={}, old={})", id, pointer.getProperty("new"), pointer.getProperty("old"));
+        return next;
+    }
+
+    private Generation readPointer() throws IOException {
+        Path pointerFile = storageRoot.resolve(POINTER_FILE);
+        if (!Files.exists(pointerFile)) {
+            return new Generation(0,
+                ref(storageRoot.resolve(zipMode ? "new.zip" : "new")),
+                ref(storageRoot.resolve(zipMode ? "old.zip" : "old")));
+        }
+        Properties pointer = new Properties();
+        try (InputStream in = Files.newInputStream(pointerFile)) {
+            pointer.load(in);
+        }
+        return new Generation(Long.parseLong(pointer.getProperty("generation", "0")),
+            ref(storageRoot.resolve(pointer.getProperty("new"))),
+            ref(storageRoot.resolve(pointer.getProperty("old"))));
+    }
+
+    private Path newSnapshotPath(String suffix) {
+        String name = System.currentTimeMillis() + "-" + snapshotSeq.incrementAndGet() + suffix;
+        return storageRoot.resolve(SNAPSHOTS_DIR).resolve(name);
+    }
+
+    private static boolean isArchive(Path path) {
+        return path.getFileName().toString().endsWith(".zip");
+    }
+
+    /** Mirror source into target with hard links, falling back to copies where links are unsupported. */
+    private static void linkTree(Path source, Path target) throws IOException {
+        Files.createDirectories(target);
+        if (!Files.isDirectory(source)) return;
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(dest);
+                    continue;
+                }
+                try {
+                    Files.createLink(dest, p);
+                } catch (UnsupportedOperationException | IOException ex) {
+                    Files.copy(p, dest, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    // --- snapshot reference counting -------------------------------------------------------
+
+    private SnapshotRef ref(Path path) {
+        synchronized (refs) {
+            return refs.computeIfAbsent(path.normalize(), SnapshotRef::new);
+        }
+    }
+
+    private void release(SnapshotRef ref) {
+        if (ref.refs.decrementAndGet() == 0 && ref.retired) {
+            reap(ref);
+        }
+    }
+
+    private void retire(SnapshotRef ref) {
+        ref.retired = true;
+        if (ref.refs.get() == 0) {
+            reap(ref);
+        }
+    }
+
+    private void reap(SnapshotRef ref) {
+        if (!ref.refs.compareAndSet(0, -1)) return; // a reader got in first; it reaps on release
+        synchronized (refs) {
+            refs.remove(ref.path, ref);
+        }
+        reaper.execute(() -> deleteSnapshot(ref.path));
+    }
+
+    private void deleteSnapshot(Path path) {
+        try {
+            if (isArchive(path)) mounts.invalidate(path);
+            if (!Files.exists(path)) return;
+            try (Stream<Path> paths = Files.walk(path)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.deleteIfExists(p);
+                    } catch (IOException ignored) {
+                    }
+                });
+            }
+            LOG.info("🗑️  Removed retired snapshot {}", storageRoot.relativize(path));
+        } catch (Exception e) {
+            LOG.warn("Failed to remove retired snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    /** Staging snapshots left behind by an interrupted sync are never published; drop them. */
+    private void removeUnreferencedSnapshots() throws IOException {
+        Generation current = published.get();
+        try (Stream<Path> paths = Files.list(storageRoot.resolve(SNAPSHOTS_DIR))) {
+            paths.map(Path::normalize)
+                .filter(p -> !p.equals(current.newRef.path) && !p.equals(current.oldRef.path))
+                .forEach(p -> reaper.execute(() -> deleteSnapshot(p)));
+        }
+    }
+
+    private String readNewClass(String className) {
+        try (Snapshot snapshot = openNew()) {
+            Path file = snapshot.classesDir().resolve(className + ".cls");
+            return Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8) : null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Map<String, Long> entryCrcs(Path archive) throws IOException {
+        Map<String, Long> crcs = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) crcs.put(entry.getName(), entry.getCrc());
+            }
+        }
+        return crcs;
+    }
+
+    @PreDestroy
+    public void close() {
+        reaper.shutdown();
+        mounts.close();
+    }
+
+    private static final class SnapshotRef {
+        final Path path;
+        /** Open readers; -1 once reaped, after which it can no longer be acquired. */
+        final AtomicInteger refs = new AtomicInteger();
+        volatile boolean retired;
+        /** SHA-256 of class files by file name; filled in as they are hashed, as files never change once written. */
+        final Map<String, String> classHashes = new ConcurrentHashMap<>();
+
+        SnapshotRef(Path path) {
+            this.path = path;
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int n = refs.get();
+                if (n < 0) return false;
+                if (refs.compareAndSet(n, n + 1)) return true;
+            }
+        }
+    }
+
+    /**
+     * A published pair of new and old snapshots. Instances returned by {@link #open()} hold both
+     * snapshots open until closed.
+     */
+    public final class Generation implements Closeable {
+        private final long id;
+        private final SnapshotRef newRef;
+        private final SnapshotRef oldRef;
+        private final Snapshot current;
+        private final Snapshot previous;
+        private boolean closed;
+
+        private Generation(long id, SnapshotRef newRef, SnapshotRef oldRef) {
+            this(id, newRef, oldRef, null, null);
+        }
+
+        private Generation(long id, SnapshotRef newRef, SnapshotRef oldRef, Snapshot current, Snapshot previous) {
+            this.id = id;
+            this.newRef = newRef;
+            this.oldRef = oldRef;
+            this.current = current;
+            this.previous = previous;
+        }
+
+        private Generation opened(Snapshot current, Snapshot previous) {
+            return new Generation(id, newRef, oldRef, current, previous);
+        }
+
+        public long id() {
+            return id;
+        }
+
+        /** The store this generation was published by. */
+        public ApexSnapshotStore store() {
+            return ApexSnapshotStore.this;
+        }
+
+        /** The latest retrieve. */
+        public Snapshot current() {
+            return current;
+        }
+
+        /**
+         * The previous versions: timestamped archives of changed files in directory mode, the
+         * whole previous retrieve in zip mode.
+         */
+        public Snapshot previous() {
+            return previous;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed || current == null) return;
+            closed = true;
+            current.close();
+            previous.close();
+            release(oldRef);
+            release(newRef);
+        }
+    }
+
+    /**
+     * Read view of one snapshot. Paths obtained from it are only valid until it is closed.
+     */
+    public static final class Snapshot implements Closeable {
+        private final Path root;
+        private final boolean timestampedArchive;
+        private final Map<String, String> classHashes;
+        private final Runnable onClose;
+
+        private Snapshot(Path root, boolean timestampedArchive, Map<String, String> classHashes, Runnable onClose) {
+            this.root = root;
+            this.timestampedArchive = timestampedArchive;
+            this.classHashes = classHashes;
+            this.onClose = onClose;
+        }
+
+        public Path root() {
+            return root;
+        }
+
+        /** The unpackaged/classes folder of this snapshot. */
+        public Path classesDir() {
+            return root.resolve(CLASSES_PATH);
+        }
+
+        /** True when classes are stored as ClassName_TIMESTAMP.cls archives rather than ClassName.cls. */
+        public boolean isTimestampedArchive() {
+            return timestampedArchive;
+        }
+
+        /**
+         * SHA-256 (hex) of a file in {@link #classesDir()}. Known for the classes a sync wrote or
+         * kept; any other file is read and hashed once per snapshot.
+         */
+        public String classHash(Path classFile) throws IOException {
+            String fileName = classFile.getFileName().toString();
+            String hash = classHashes.get(fileName);
+            if (hash == null) {
+                hash = ClassChangeCollector.sha256(Files.readAllBytes(classFile));
+                classHashes.put(fileName, hash);
+            }
+            return hash;
+        }
+
+        @Override
+        public void close() {
+            if (onClose != null) onClose.run();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.sf.service;
+
+import com.example.sf.model.ClassChange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the class changes of every stored retrieve, for consumers that follow
+ * them instead of diffing compare results themselves. One JSON line per change:
+ *
+ *   {"offset":..,"time":..,"org":"prod","generation":..,"type":"modified","class":"AccountService",
+ *    "previousClass":null,"hash":"..","previousHash":".."}
+ *
+ * An entry's offset is its byte position in the journal, so a read from an offset is a single
+ * seek, and a batch is served as the raw lines without parsing them. The journal is split into
+ * segments of about segment-bytes, each named after the offset of its first entry; a segment
+ * is never rewritten once the next one started. Entries become visible to readers once they
+ * are written (and forced to disk); a line torn by a crash is cut off on the next start.
+ */
+@Service
+public class ChangeJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeJournal.class);
+    private static final Pattern SEGMENT = Pattern.compile("\\d{20}\\.log");
+    private static final int READ_CHUNK = 256 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final int defaultLimit;
+    private final int maxLimit;
+    private final long maxWaitMillis;
+    private final ObjectMapper objectMapper;
+    /** Segment files by the offset of their first entry. */
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    /** Offset after the last entry readers may see. */
+    private volatile long end;
+    // Guarded by this
+    private FileChannel active;
+    private long activeBase;
+    private CompletableFuture<Void> appended = new CompletableFuture<>();
+
+    public ChangeJournal(ObjectMapper objectMapper,
+                         @Value("${storage.apex.journal.path:${storage.apex.path:storage/apex}/journal}") String journalDir,
+                         @Value("${storage.apex.journal.segment-bytes:67108864}") long segmentBytes,
+                         @Value("${storage.apex.journal.fsync:true}") boolean fsync,
+                         @Value("${storage.apex.journal.read.default-limit:1000}") int defaultLimit,
+                         @Value("${storage.apex.journal.read.max-limit:10000}") int maxLimit,
+                         @Value("${storage.apex.journal.read.max-wait-ms:30000}") long maxWaitMillis) throws IOException {
+        this.objectMapper = objectMapper;
+        this.directory = Path.of(journalDir);
+        this.segmentBytes = Math.max(4096, segmentBytes);
+        this.fsync = fsync;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.defaultLimit = Math.max(1, Math.min(defaultLimit, this.maxLimit));
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> SEGMENT.matcher(p.getFileName().toString()).matches())
+                .forEach(p -> segments.put(Long.parseLong(p.getFileName().toString().substring(0, 20)), p));
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, segmentPath(0));
+        }
+        activeBase = segments.lastKey();
+        active = FileChannel.open(segments.lastEntry().getValue(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = completeLength(active);
+        if (size < active.size()) {
+            LOG.warn("Cut {} bytes of a torn entry off the change journal", active.size() - size);
+            active.truncate(size);
+        }
+        active.position(size);
+        end = activeBase + size;
+        LOG.info("📒 Change journal under {} ({} segment(s), end offset {})", directory.toAbsolutePath(), segments.size(), end);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        active.close();
+    }
+
+    /** Offset the next entry will get. */
+    public long end() {
+        return end;
+    }
+
+    /** Append the changes a stored retrieve made to org's snapshot, now generation. */
+    public void append(String org, long generation, List<ClassChange> changes) throws IOException {
+        if (changes.isEmpty()) return;
+        CompletableFuture<Void> waiting;
+        synchronized (this) {
+            write(org, generation, changes);
+            waiting = appended;
+            appended = new CompletableFuture<>();
+        }
+        // Outside the lock: waiters may go on to read right here
+        waiting.complete(null);
+    }
+
+    private void write(String org, long generation, List<ClassChange> changes) throws IOException {
+        if (end - activeBase >= segmentBytes) {
+            rotate();
+        }
+        long time = System.currentTimeMillis();
+        long offset = end;
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(changes.size() * 320);
+        for (ClassChange change : changes) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("offset", offset);
+            entry.put("time", time);
+            entry.put("org", org);
+            entry.put("generation", generation);
+            entry.put("type", change.getType());
+            entry.put("class", change.getClassName());
+            entry.put("previousClass", change.getPreviousName());
+            entry.put("hash", change.getHash());
+            entry.put("previousHash", change.getPreviousHash());
+            byte[] line = objectMapper.writeValueAsBytes(entry);
+            lines.write(line);
+            lines.write('\n');
+            offset += line.length + 1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+        if (fsync) {
+            active.force(false);
+        }
+        end = offset;
+    }
+
+    private void rotate() throws IOException {
+        Path next = segmentPath(end);
+        FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        active.close();
+        active = channel;
+        activeBase = end;
+        segments.put(end, next);
+        LOG.info("📒 Change journal segment {} started", next.getFileName());
+    }
+
+    /**
+     * Completes once there are entries at or after offset, or after waitMillis (at most the
+     * configured maximum), whichever comes first. Holds no thread while waiting.
+     */
+    public CompletableFuture<Void> awaitEntries(long offset, long waitMillis) {
+        long timeout = Math.max(0, Math.min(waitMillis, maxWaitMillis));
+        synchronized (this) {
+            if (end > offset || timeout == 0) return CompletableFuture.completedFuture(null);
+            return appended.thenApply(v -> (Void) null).completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Up to limit entries from offset on, as UTF-8 JSON:
+     * {"entries": [...], "count": n, "nextOffset": ..., "endOffset": ...}.
+     *
+     * offset is 0 or the nextOffset of the previous batch. With org, only that org's entries are
+     * returned; nextOffset still moves past the others.
+     */
+    public byte[] readJson(long offset, Integer limit, String org) throws IOException {
+        int maxEntries = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        long readEnd = end;
+        if (offset < 0 || offset > readEnd) {
+            throw new IllegalArgumentException("Offset " + offset + " is outside the journal (0.." + readEnd + ")");
+        }
+        byte[] orgField = org == null || org.isBlank() ? null
+            : (",\"org\":" + objectMapper.writeValueAsString(org.trim()) + ",").getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"entries\":[".getBytes(StandardCharsets.UTF_8));
+        int count = 0;
+        int scanned = 0;
+        long position = offset;
+        while (scanned < maxEntries && position < readEnd) {
+            long segmentStart = position;
+            Map.Entry<Long, Path> segment = segments.floorEntry(position);
+            Long nextBase = segments.higherKey(segment.getKey());
+            long segmentEnd = nextBase == null ? readEnd : Math.min(nextBase, readEnd);
+            try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                if (position == offset) requireEntryStart(channel, position - segment.getKey(), offset);
+                ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK);
+                ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+                long filePosition = position - segment.getKey();
+                long fileEnd = segmentEnd - segment.getKey();
+                while (scanned < maxEntries && filePosition < fileEnd) {
+                    chunk.clear();
+                    chunk.limit((int) Math.min(READ_CHUNK, fileEnd - filePosition));
+                    int n = channel.read(chunk, filePosition);
+                    if (n <= 0) break;
+                    byte[] bytes = chunk.array();
+                    int start = 0;
+                    for (int i = 0; i < n && scanned < maxEntries; i++) {
+                        if (bytes[i] != '\n') continue;
+                        line.write(bytes, start, i - start);
+                        position += line.size() + 1;
+                        start = i + 1;
+                        scanned++;
+                        byte[] entry = line.toByteArray();
+                        line.reset();
+                        if (orgField != null && indexOf(entry, orgField) < 0) continue;
+                        if (count++ > 0) out.write(',');
+                        out.write(entry);
+                    }
+                    if (scanned < maxEntries) line.write(bytes, start, n - start);
+                    filePosition += scanned < maxEntries ? n : start;
+                }
+            }
+            if (position == segmentStart) break; // shorter than its neighbours say; nothing more to read
+        }
+        out.write(("],\"count\":" + count + ",\"nextOffset\":" + position + ",\"endOffset\":" + end + "}")
+            .getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    /** An offset has to be where an entry starts: the start of a segment, or just after a newline. */
+    private static void requireEntryStart(FileChannel channel, long filePosition, long offset) throws IOException {
+        if (filePosition == 0) return;
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        if (channel.read(previous, filePosition - 1) != 1 || previous.get(0) != '\n') {
+            throw new IllegalArgumentException("Offset " + offset + " is not the start of an entry");
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        outer:
+        for (int i = 0; i <= bytes.length - part.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Length of the file up to and including its last newline. */
+    private static long completeLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = size;
+        while (position > 0) {
+            int length = (int) Math.min(buffer.capacity(), position);
+            position -= length;
+            buffer.clear().limit(length);
+            channel.read(buffer, position);
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d.log", baseOffset));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.sf.service;
+
+import com.example.sf.model.ClassChange;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the {@link ClassChange}s of one stored retrieve; extraction writers report from
+ * several threads. Once they are done, {@link #changes()} turns a deletion and an addition whose
+ * sources only differ in the class's own name into a rename, since renaming an Apex class also
+ * renames its declaration and constructors. Sources are only read again for that when a retrieve
+ * both added and deleted classes.
+ */
+final class ClassChangeCollector {
+
+    /** Reads a class source again when it is needed for rename detection. */
+    @FunctionalInterface
+    interface Source {
+        byte[] read() throws IOException;
+    }
+
+    private final List<ClassChange> modified = new ArrayList<>();
+    private final List<Side> added = new ArrayList<>();
+    private final List<Side> deleted = new ArrayList<>();
+
+    /** The class name (without .cls) of a ZIP entry or file name, or null if it is not a class. */
+    static String classNameOf(String entryName) {
+        if (!entryName.endsWith(".cls")) return null;
+        String file = entryName.substring(entryName.lastIndexOf('/') + 1);
+        return file.substring(0, file.length() - ".cls".length());
+    }
+
+    synchronized void added(String className, byte[] source, Source reread) {
+        added.add(new Side(className, sha256(source), reread));
+    }
+
+    synchronized void modified(String className, byte[] source, byte[] previousSource) {
+        modified.add(ClassChange.modified(className, sha256(source), sha256(previousSource)));
+    }
+
+    synchronized void deleted(String className, byte[] previousSource, Source reread) {
+        deleted.add(new Side(className, sha256(previousSource), reread));
+    }
+
+    /** Every change by class name, renames paired up. */
+    synchronized List<ClassChange> changes() throws IOException {
+        List<ClassChange> changes = new ArrayList<>(modified);
+        boolean pairing = !added.isEmpty() && !deleted.isEmpty();
+        Map<String, Deque<Side>> deletedByShape = new HashMap<>();
+        for (Side side : deleted) {
+            deletedByShape.computeIfAbsent(pairing ? side.shape() : side.className, s -> new ArrayDeque<>()).add(side);
+        }
+        List<Side> additions = new ArrayList<>(added);
+        additions.sort(Comparator.comparing(side -> side.className));
+        for (Side side : additions) {
+            Deque<Side> candidates = pairing ? deletedByShape.get(side.shape()) : null;
+            Side previous = candidates == null ? null : candidates.poll();
+            changes.add(previous == null
+                ? ClassChange.added(side.className, side.hash)
+                : ClassChange.renamed(side.className, previous.className, side.hash, previous.hash));
+        }
+        for (Deque<Side> unmatched : deletedByShape.values()) {
+            for (Side side : unmatched) changes.add(ClassChange.deleted(side.className, side.hash));
+        }
+        changes.sort(Comparator.comparing(ClassChange::getClassName));
+        return changes;
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** One side of a possible rename: an added or a deleted class. */
+    private static final class Side {
+        final String className;
+        final String hash;
+        final Source source;
+
+        Side(String className, String hash, Source source) {
+            this.className = className;
+            this.hash = hash;
+            this.source = source;
+        }
+
+        /** Hash of the source with the class's own name blanked out. */
+        String shape() throws IOException {
+            String text = new String(source.read(), StandardCharsets.UTF_8);
+            Pattern ownName = Pattern.compile("\\b" + Pattern.quote(className) + "\\b", Pattern.CASE_INSENSITIVE);
+            return sha256(ownName.matcher(text).replaceAll(Matcher.quoteReplacement("\u0000")).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
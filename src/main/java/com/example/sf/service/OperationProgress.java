@@ -0,0 +1,85 @@
+package com.example.sf.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress counters of one long-running operation (a retrieve, a compare).
+ *
+ * The operation's thread binds it with {@link ProgressTracker#start}; code deep in the call
+ * chain reaches it through {@link #current()} and only bumps counters, so reporting costs an
+ * uncontended add on the hot path. Streams read a {@link #snapshot()} at their own pace.
+ * Without a bound operation {@link #current()} returns a shared instance that nobody reads.
+ */
+public final class OperationProgress {
+
+    static final ThreadLocal<OperationProgress> CURRENT = new ThreadLocal<>();
+    private static final OperationProgress UNTRACKED = new OperationProgress(null, "untracked");
+
+    private final String id;
+    private final String kind;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile String phase = "started";
+    private volatile String error;
+    private volatile boolean done;
+    private volatile long finishedAt;
+    private final LongAdder pollAttempts = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder entriesExtracted = new LongAdder();
+    private final LongAdder filesArchived = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final AtomicLong diffTotal = new AtomicLong();
+    private final LongAdder diffDone = new LongAdder();
+
+    OperationProgress(String id, String kind) {
+        this.id = id;
+        this.kind = kind;
+    }
+
+    /** The operation bound to this thread, or a no-op sink. */
+    public static OperationProgress current() {
+        OperationProgress progress = CURRENT.get();
+        return progress != null ? progress : UNTRACKED;
+    }
+
+    public String getId() { return id; }
+
+    public void phase(String phase) { this.phase = phase; }
+    public void pollAttempt() { pollAttempts.increment(); }
+    public void downloaded(long bytes) { bytesDownloaded.add(bytes); }
+    public void extracted(long bytes) { entriesExtracted.increment(); bytesWritten.add(bytes); }
+    public void archived() { filesArchived.increment(); }
+    public void diffTotal(long files) { diffTotal.set(files); }
+    public void diffed() { diffDone.increment(); }
+
+    void finish(String error) {
+        this.error = error;
+        this.phase = error == null ? "done" : "failed";
+        this.finishedAt = System.currentTimeMillis();
+        this.done = true;
+    }
+
+    boolean isDone() { return done; }
+    long getFinishedAt() { return finishedAt; }
+
+    /** Point-in-time view; equal snapshots mean nothing happened in between. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", id);
+        m.put("kind", kind);
+        m.put("phase", phase);
+        m.put("pollAttempts", pollAttempts.sum());
+        m.put("bytesDownloaded", bytesDownloaded.sum());
+        m.put("entriesExtracted", entriesExtracted.sum());
+        m.put("filesArchived", filesArchived.sum());
+        m.put("bytesWritten", bytesWritten.sum());
+        m.put("diffTotal", diffTotal.get());
+        m.put("diffDone", diffDone.sum());
+        m.put("startedAt", startedAt);
+        m.put("done", done);
+        if (error != null) m.put("error", error);
+        return m;
+    }
+}
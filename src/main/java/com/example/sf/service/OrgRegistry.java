@@ -0,0 +1,197 @@
+package com.example.sf.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The orgs snapshots are kept for. Each configured org has its own storage root (and snapshot
+ * store), instance URL and credentials:
+ *
+ *   salesforce.orgs=prod,uat1
+ *   salesforce.org.prod.instance-url=https://acme.my.salesforce.com
+ *   salesforce.org.prod.refresh-token=...            (optional, else learned from /connect)
+ *   salesforce.org.prod.token-url=...                (default {instance-url}/services/oauth2/token)
+ *   salesforce.org.prod.client-id / client-secret    (default salesforce.clientId / clientSecret)
+ *   salesforce.org.prod.storage-path=...             (default {storage.apex.path}/orgs/prod)
+ *
+ * The "default" org is always there. It keeps the legacy storage root and serves sessions
+ * connected to an org that is not configured, so a setup without salesforce.orgs works as before.
+ */
+@Service
+public class OrgRegistry {
+
+    public static final String DEFAULT_ORG = "default";
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrgRegistry.class);
+    private static final Pattern ORG_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final SalesforceRequestScheduler requests;
+    private final long tokenTtlMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, SalesforceOrg> orgs = new LinkedHashMap<>();
+    private final Map<String, SalesforceOrg> byInstance = new HashMap<>();
+
+    public OrgRegistry(ApexSnapshotStore defaultStore,
+                       ZipExtractionPipeline extractionPipeline,
+                       SalesforceRequestScheduler requests,
+                       Environment env,
+                       @Value("${salesforce.orgs:}") String orgIds,
+                       @Value("${storage.apex.path:storage/apex}") String storageDir,
+                       @Value("${storage.apex.snapshot-mode:directory}") String snapshotMode,
+                       @Value("${storage.apex.snapshot.open-archives:4}") int openArchives,
+                       @Value("${salesforce.clientId:}") String clientId,
+                       @Value("${salesforce.clientSecret:}") String clientSecret,
+                       @Value("${salesforce.org-token.ttl-ms:900000}") long tokenTtlMillis) throws IOException {
+        this.requests = requests;
+        this.tokenTtlMillis = tokenTtlMillis;
+        orgs.put(DEFAULT_ORG, new SalesforceOrg(DEFAULT_ORG, null, null, clientId, clientSecret, null,
+            Path.of(storageDir), defaultStore));
+
+        for (String raw : orgIds.split(",")) {
+            String id = raw.trim();
+            if (id.isEmpty()) continue;
+            if (!ORG_ID.matcher(id).matches() || orgs.containsKey(id)) {
+                throw new IllegalStateException("Invalid or duplicate org id '" + id + "' in salesforce.orgs");
+            }
+            String prefix = "salesforce.org." + id + ".";
+            String instanceUrl = env.getProperty(prefix + "instance-url");
+            if (instanceUrl == null || instanceUrl.isBlank()) {
+                throw new IllegalStateException("Missing " + prefix + "instance-url");
+            }
+            instanceUrl = RetrieveCoordinator.orgKey(instanceUrl);
+            Path root = Path.of(env.getProperty(prefix + "storage-path", Path.of(storageDir, "orgs", id).toString()));
+            SalesforceOrg org = new SalesforceOrg(id, instanceUrl,
+                env.getProperty(prefix + "token-url", instanceUrl + "/services/oauth2/token"),
+                env.getProperty(prefix + "client-id", clientId),
+                env.getProperty(prefix + "client-secret", clientSecret),
+                env.getProperty(prefix + "refresh-token"),
+                root,
+                new ApexSnapshotStore(root.toString(), snapshotMode, openArchives, extractionPipeline));
+            orgs.put(id, org);
+            if (byInstance.putIfAbsent(instanceUrl, org) != null) {
+                throw new IllegalStateException("Orgs " + byInstance.get(instanceUrl).id() + " and " + id
+                    + " have the same instance URL " + instanceUrl);
+            }
+        }
+        LOG.info("🏢 {} org(s): {}", orgs.size(), orgs.keySet());
+    }
+
+    @PreDestroy
+    public void close() {
+        // The default org's store is a bean of its own and closed by the container
+        orgs.values().stream().filter(org -> !org.isDefault()).forEach(org -> org.store().close());
+    }
+
+    /** Every org, the default one first. */
+    public Collection<SalesforceOrg> all() {
+        return Collections.unmodifiableCollection(orgs.values());
+    }
+
+    /** The org with this id; null or blank is the default org. */
+    public SalesforceOrg get(String id) {
+        if (id == null || id.isBlank()) return orgs.get(DEFAULT_ORG);
+        SalesforceOrg org = orgs.get(id.trim());
+        if (org == null) {
+            throw new IllegalArgumentException("Unknown org '" + id.trim() + "', expected one of " + orgs.keySet());
+        }
+        return org;
+    }
+
+    /** The configured org behind instanceUrl, or the default org. */
+    public SalesforceOrg forInstance(String instanceUrl) {
+        SalesforceOrg org = instanceUrl == null ? null : byInstance.get(RetrieveCoordinator.orgKey(instanceUrl));
+        return org != null ? org : orgs.get(DEFAULT_ORG);
+    }
+
+    /** The org named by id, else the one the session is connected to. */
+    public SalesforceOrg resolve(String id, String sessionInstanceUrl) {
+        return id == null || id.isBlank() ? forInstance(sessionInstanceUrl) : get(id);
+    }
+
+    /**
+     * Credentials for a call to org: the session's when it is connected to that org, else the
+     * org's own (see {@link #connection(SalesforceOrg)}).
+     */
+    public SalesforceOrg.Connection connection(SalesforceOrg org, String sessionToken, String sessionInstanceUrl)
+            throws IOException, InterruptedException {
+        if (sessionToken != null && sessionInstanceUrl != null && forInstance(sessionInstanceUrl) == org) {
+            return new SalesforceOrg.Connection(sessionToken, sessionInstanceUrl);
+        }
+        return connection(org);
+    }
+
+    /**
+     * Credentials for a call to org without a session: its cached access token, or a new one
+     * obtained with its refresh token.
+     */
+    public SalesforceOrg.Connection connection(SalesforceOrg org) throws IOException, InterruptedException {
+        if (org.isDefault()) {
+            throw new IllegalStateException("Not connected. Visit /connect first");
+        }
+        synchronized (org) {
+            String token = org.accessToken(tokenTtlMillis);
+            if (token == null) {
+                if (!org.hasCredentials()) {
+                    throw new IllegalStateException("No credentials for org '" + org.id() + "'. Visit /connect logged in to "
+                        + org.instanceUrl() + ", or set salesforce.org." + org.id() + ".refresh-token");
+                }
+                token = refresh(org);
+                org.accessToken(token);
+            }
+            return new SalesforceOrg.Connection(token, org.instanceUrl());
+        }
+    }
+
+    /** An OAuth login completed: a configured org behind instanceUrl keeps its tokens. */
+    public void connected(String instanceUrl, String accessToken, String refreshToken) {
+        SalesforceOrg org = forInstance(instanceUrl);
+        if (org.isDefault()) return;
+        org.connected(accessToken, refreshToken);
+        LOG.info("🔑 Credentials of org {} updated from login{}", org.id(),
+            refreshToken == null ? "" : " (with refresh token)");
+    }
+
+    private String refresh(SalesforceOrg org) throws IOException, InterruptedException {
+        String form = "grant_type=refresh_token"
+            + "&refresh_token=" + URLEncoder.encode(org.refreshToken(), StandardCharsets.UTF_8)
+            + "&client_id=" + URLEncoder.encode(org.clientId(), StandardCharsets.UTF_8)
+            + "&client_secret=" + URLEncoder.encode(org.clientSecret(), StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(org.tokenUrl()))
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(form))
+            .build();
+        HttpResponse<String> response = requests.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new IllegalStateException("Token refresh for org '" + org.id() + "' failed: status="
+                + response.statusCode() + " body=" + response.body());
+        }
+        JsonNode body = mapper.readTree(response.body());
+        String token = body.path("access_token").asText(null);
+        if (token == null || token.isBlank()) {
+            throw new IllegalStateException("Token refresh for org '" + org.id() + "' returned no access_token");
+        }
+        String instanceUrl = body.path("instance_url").asText(null);
+        if (instanceUrl != null && !RetrieveCoordinator.orgKey(instanceUrl).equals(org.instanceUrl())) {
+            LOG.warn("Org {} is configured as {} but its token is for {}", org.id(), org.instanceUrl(), instanceUrl);
+        }
+        LOG.info("🔑 Refreshed access token of org {}", org.id());
+        return token;
+    }
+}
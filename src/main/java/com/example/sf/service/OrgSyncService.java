@@ -0,0 +1,253 @@
+package com.example.sf.service;
+
+import com.example.sf.model.RetrieveOutcome;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full retrieves of many orgs at once, on one bounded pool shared by all of them.
+ *
+ * A sync is a chain of short tasks: submit the retrieve, one task per status check, then store.
+ * Between status checks an org holds no thread; its next check is queued behind the work of
+ * the other orgs. A retrieve that takes a long time on the Salesforce side therefore only
+ * costs its checks. Even the largest download and extraction takes one pool thread, so other
+ * orgs keep going on the rest. Syncs go through {@link RetrieveCoordinator}, so an org syncs
+ * at most once at a time, also alongside interactive retrieve-and-poll calls. Their Salesforce
+ * calls are background traffic.
+ */
+@Service
+public class OrgSyncService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrgSyncService.class);
+    private static final String LISTING_FILE = "last-sync-listing";
+
+    private final OrgRegistry orgs;
+    private final SalesforceApexService apexService;
+    private final RetrieveCoordinator coordinator;
+    private final RetrieveCheckpointStore checkpoints;
+    private final SalesforceRequestScheduler scheduler;
+    private final long pollIntervalMillis;
+    private final ExecutorService pool;
+    private final ScheduledExecutorService timer;
+    private final Map<String, SyncStatus> status = new ConcurrentHashMap<>();
+    /** Class listing fingerprint of each org's last retrieve, "" if unknown. */
+    private final Map<String, String> listings = new ConcurrentHashMap<>();
+
+    public OrgSyncService(OrgRegistry orgs,
+                          SalesforceApexService apexService,
+                          RetrieveCoordinator coordinator,
+                          RetrieveCheckpointStore checkpoints,
+                          SalesforceRequestScheduler scheduler,
+                          @Value("${salesforce.orgs.sync.threads:4}") int threads,
+                          @Value("${salesforce.orgs.sync.poll-interval-ms:2000}") long pollIntervalMillis) {
+        this.orgs = orgs;
+        this.apexService = apexService;
+        this.coordinator = coordinator;
+        this.checkpoints = checkpoints;
+        this.scheduler = scheduler;
+        this.pollIntervalMillis = Math.max(100, pollIntervalMillis);
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "apex-org-sync-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "apex-org-sync-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /** Sync org on the shared pool with its own credentials. */
+    public CompletableFuture<RetrieveOutcome> sync(SalesforceOrg org) {
+        return run(org, false);
+    }
+
+    /**
+     * Sync org unless its class listing is the same as at its last retrieve; then nothing is
+     * retrieved and the outcome is {@link RetrieveOutcome#UNCHANGED}. The listing of the last
+     * retrieve is kept in the org's storage root, so a restart does not force a retrieve.
+     */
+    public CompletableFuture<RetrieveOutcome> syncIfChanged(SalesforceOrg org) {
+        return run(org, true);
+    }
+
+    private CompletableFuture<RetrieveOutcome> run(SalesforceOrg org, boolean probe) {
+        SyncStatus started = new SyncStatus(System.currentTimeMillis());
+        status.put(org.id(), started);
+        CompletableFuture<SalesforceOrg.Connection> connected = CompletableFuture.supplyAsync(() -> connect(org), pool);
+        CompletableFuture<RetrieveOutcome> outcome = probe
+            ? connected.thenComposeAsync(connection -> retrieveIfChanged(org, connection), pool)
+            : connected.thenCompose(connection -> coordinator.coalesce(connection.instanceUrl(), () -> retrieve(org, connection)));
+        outcome.whenComplete((result, error) -> {
+            started.finished(result, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            if (error != null) LOG.warn("Sync of org {} failed: {}", org.id(), started.error);
+            else if (RetrieveOutcome.UNCHANGED.equals(result.getSource())) LOG.info("🔄 Org {} unchanged, retrieve skipped", org.id());
+            else LOG.info("🔄 Synced org {} ({} retrieve {}, {} classes)", org.id(), result.getSource(),
+                result.getRetrieveId(), result.getClasses().size());
+        });
+        return outcome;
+    }
+
+    /** The last sync of org: running, succeeded or failed, with its timing; null if it never synced. */
+    public Map<String, Object> status(SalesforceOrg org) {
+        SyncStatus last = status.get(org.id());
+        return last == null ? null : last.snapshot();
+    }
+
+    private SalesforceOrg.Connection connect(SalesforceOrg org) {
+        try {
+            return scheduler.inBackground(() -> orgs.connection(org));
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private CompletableFuture<RetrieveOutcome> retrieveIfChanged(SalesforceOrg org, SalesforceOrg.Connection connection) {
+        String listing;
+        try {
+            listing = scheduler.inBackground(() -> apexService.classListingFingerprint(connection.token(), connection.instanceUrl()));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (listing != null && listing.equals(lastListing(org)) && org.store().generationId() > 0) {
+            return CompletableFuture.completedFuture(
+                new RetrieveOutcome(null, Map.of(), System.currentTimeMillis(), RetrieveOutcome.UNCHANGED));
+        }
+        return coordinator.coalesce(connection.instanceUrl(), () -> retrieve(org, connection)).thenApply(result -> {
+            // A joined or cached retrieve may have started before the listing was taken, so it proves nothing
+            if (listing != null && RetrieveOutcome.RETRIEVED.equals(result.getSource())) keepListing(org, listing);
+            return result;
+        });
+    }
+
+    private String lastListing(SalesforceOrg org) {
+        return listings.computeIfAbsent(org.id(), id -> {
+            try {
+                Path file = org.storageRoot().resolve(LISTING_FILE);
+                return Files.exists(file) ? Files.readString(file).trim() : "";
+            } catch (IOException e) {
+                LOG.warn("Could not read the last class listing of org {}: {}", org.id(), e.getMessage());
+                return "";
+            }
+        });
+    }
+
+    private void keepListing(SalesforceOrg org, String listing) {
+        listings.put(org.id(), listing);
+        try {
+            Path file = org.storageRoot().resolve(LISTING_FILE);
+            Path tmp = file.resolveSibling(LISTING_FILE + ".tmp");
+            Files.writeString(tmp, listing);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not keep the class listing of org {}: {}", org.id(), e.getMessage());
+        }
+    }
+
+    private CompletableFuture<RetrieveOutcome> retrieve(SalesforceOrg org, SalesforceOrg.Connection connection) {
+        CompletableFuture<RetrieveOutcome> done = new CompletableFuture<>();
+        pool.execute(() -> {
+            try {
+                String asyncId = scheduler.inBackground(() -> apexService.sendRetrieveRequestAndGetId(connection.token(), connection.instanceUrl()));
+                checkpoints.begin(asyncId, connection.instanceUrl(), connection.token());
+                LOG.info("✅ Retrieve ID → {} for org {}", asyncId, org.id());
+                SalesforceApexService.StatusPoller poller = apexService.statusPoller(asyncId, connection.token(), connection.instanceUrl());
+                schedulePoll(asyncId, poller, connection.instanceUrl(), done);
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    private void schedulePoll(String asyncId, SalesforceApexService.StatusPoller poller, String instanceUrl,
+                              CompletableFuture<RetrieveOutcome> done) {
+        try {
+            timer.schedule(() -> pool.execute(() -> poll(asyncId, poller, instanceUrl, done)),
+                pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    /** One status check; a finished retrieve is stored right away on the same thread. */
+    private void poll(String asyncId, SalesforceApexService.StatusPoller poller, String instanceUrl,
+                      CompletableFuture<RetrieveOutcome> done) {
+        try {
+            RetrievePayload payload = scheduler.inBackground(poller::check);
+            if (payload == null) {
+                schedulePoll(asyncId, poller, instanceUrl, done);
+                return;
+            }
+            Map<String, String> classes = apexService.storeDownloaded(asyncId, payload, instanceUrl);
+            checkpoints.complete(asyncId);
+            done.complete(new RetrieveOutcome(asyncId, classes, System.currentTimeMillis(), RetrieveOutcome.RETRIEVED));
+        } catch (InterruptedException e) {
+            // Shutting down: the checkpoint stays, so the retrieve resumes after a restart
+            Thread.currentThread().interrupt();
+            done.completeExceptionally(e);
+        } catch (Exception e) {
+            checkpoints.failed(asyncId, e);
+            done.completeExceptionally(e);
+        }
+    }
+
+    private static final class SyncStatus {
+        final long startedAt;
+        volatile long finishedAt;
+        volatile String state = "running";
+        volatile String retrieveId;
+        volatile String source;
+        volatile int classCount;
+        volatile String error;
+
+        SyncStatus(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        void finished(RetrieveOutcome outcome, Throwable failure) {
+            if (failure != null) {
+                error = failure.getMessage() == null ? failure.toString() : failure.getMessage();
+                state = "failed";
+            } else {
+                retrieveId = outcome.getRetrieveId();
+                source = outcome.getSource();
+                classCount = outcome.getClasses().size();
+                state = "succeeded";
+            }
+            finishedAt = System.currentTimeMillis();
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("state", state);
+            m.put("startedAt", startedAt);
+            m.put("finishedAt", finishedAt == 0 ? null : finishedAt);
+            m.put("retrieveId", retrieveId);
+            m.put("source", source);
+            m.put("classCount", "succeeded".equals(state) && !RetrieveOutcome.UNCHANGED.equals(source) ? classCount : null);
+            m.put("error", error);
+            return m;
+        }
+    }
+}
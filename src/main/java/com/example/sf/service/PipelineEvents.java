@@ -0,0 +1,179 @@
+package com.example.sf.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Flight Recorder events for the per-file hot paths: one event per extracted ZIP entry,
+ * archived file, class file read and class diff, carrying the class, bytes, lines and duration.
+ *
+ * All are disabled by default. A disabled event costs an isEnabled check, and the event object
+ * is usually scalar-replaced. Fields are only filled in once the event is going to be committed.
+ * Enable them on a running app with the settings in src/main/resources/jfr/apex-sync.jfc:
+ *
+ *   jcmd <pid> JFR.start name=apex settings=src/main/resources/jfr/apex-sync.jfc
+ *   jcmd <pid> JFR.dump name=apex filename=apex.jfr
+ *
+ * In JMC, the event browser then lists these events under "Apex Sync". Sorting by duration or
+ * grouping by class name shows the slowest classes and where their time went.
+ */
+public final class PipelineEvents {
+
+    private PipelineEvents() {
+    }
+
+    @Name("com.example.sf.ExtractEntry")
+    @Label("Extract Entry")
+    @Description("One ZIP entry compared with the published file, archived if changed, and written")
+    @Category({"Apex Sync", "Extraction"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class ExtractEntry extends Event {
+        @Label("Entry")
+        String entry;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Archived")
+        @Description("The published version differed and was archived first")
+        boolean archived;
+
+        @Label("Streamed")
+        @Description("Written from the spilled ZIP file rather than from memory")
+        boolean streamed;
+
+        public void finish(String entry, long bytes, boolean archived, boolean streamed) {
+            end();
+            if (shouldCommit()) {
+                this.entry = entry;
+                this.bytes = bytes;
+                this.archived = archived;
+                this.streamed = streamed;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.example.sf.ArchiveFile")
+    @Label("Archive File")
+    @Description("Previous version of a changed file copied into the old snapshot")
+    @Category({"Apex Sync", "Extraction"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class ArchiveFile extends Event {
+        @Label("Entry")
+        String entry;
+
+        @Label("Archived As")
+        String archivedAs;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** The archive copy is only looked at when the event is recorded. */
+        public void finish(String entry, Path archivedFile) {
+            end();
+            if (shouldCommit()) {
+                this.entry = entry;
+                this.archivedAs = archivedFile.getFileName().toString();
+                try {
+                    this.bytes = Files.size(archivedFile);
+                } catch (IOException e) {
+                    this.bytes = -1;
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("com.example.sf.ReadClass")
+    @Label("Read Class")
+    @Description("A stored class file read for a comparison")
+    @Category({"Apex Sync", "Comparison"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class ReadClass extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("File")
+        String file;
+
+        @Label("Characters")
+        long characters;
+
+        @Label("Lines")
+        int lines;
+
+        /** A file read whole; its lines are only counted when the event is recorded. */
+        public void finish(String className, String file, String content) {
+            end();
+            if (shouldCommit()) {
+                set(className, file, content.length(), (int) content.lines().count());
+            }
+        }
+
+        /** A file read as lines. */
+        public void finish(String className, String file, List<String> content) {
+            end();
+            if (shouldCommit()) {
+                long characters = 0;
+                for (String line : content) characters += line.length();
+                set(className, file, characters, content.size());
+            }
+        }
+
+        private void set(String className, String file, long characters, int lines) {
+            this.className = className;
+            this.file = file;
+            this.characters = characters;
+            this.lines = lines;
+            commit();
+        }
+    }
+
+    @Name("com.example.sf.DiffClass")
+    @Label("Diff Class")
+    @Description("Myers diff of a class against its previous version, and formatting of the changes")
+    @Category({"Apex Sync", "Comparison"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class DiffClass extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Old Lines")
+        int oldLines;
+
+        @Label("New Lines")
+        int newLines;
+
+        @Label("Changes")
+        int changes;
+
+        public void finish(String className, int oldLines, int newLines, int changes) {
+            end();
+            if (shouldCommit()) {
+                this.className = className;
+                this.oldLines = oldLines;
+                this.newLines = newLines;
+                this.changes = changes;
+                commit();
+            }
+        }
+    }
+}
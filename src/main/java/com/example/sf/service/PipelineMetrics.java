@@ -0,0 +1,159 @@
+package com.example.sf.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the sync pipeline, per stage and tagged by org:
+ *
+ *   apex.retrieve.submit         timer    retrieve request accepted (tag api=soap|rest)
+ *   apex.retrieve.polls          summary  status checks per retrieve
+ *   apex.retrieve.poll.duration  timer    first status check to finished download
+ *   apex.retrieve.payload        summary  bytes of the downloaded status response
+ *   apex.retrieve.decode         timer    base64 decode of the zipFile
+ *   apex.extract.duration        timer    one extraction run
+ *   apex.extract.entries         counter  ZIP entries written
+ *   apex.extract.bytes           counter  bytes written
+ *   apex.extract.write           timer    one file write
+ *   apex.extract.archive         timer    one archive copy of a changed file
+ *   apex.compare.diff            timer    one class compared (read and diff)
+ *   apex.compare.results         counter  comparison results (tag status)
+ *
+ * Meters of an org are registered once and cached, so recording is a map lookup plus the meter
+ * update. Extraction and comparison do not see the instance URL; they report to the org bound
+ * to the calling thread with {@link #bind}, captured once per run like {@link OperationProgress}.
+ * Work with no bound org is tagged org=default.
+ */
+@Component
+public class PipelineMetrics {
+
+    static final String DEFAULT_ORG = "default";
+
+    private static final ThreadLocal<Org> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    private final Map<String, Org> orgs = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Meters of the org behind instanceUrl. */
+    public Org forOrg(String instanceUrl) {
+        return orgs.computeIfAbsent(orgTag(instanceUrl), tag -> new Org(registry, tag));
+    }
+
+    /** Meters of the org bound to this thread, or of the default org. */
+    public Org current() {
+        Org org = CURRENT.get();
+        return org != null ? org : orgs.computeIfAbsent(DEFAULT_ORG, tag -> new Org(registry, tag));
+    }
+
+    /** Report this thread's extraction and comparison work to instanceUrl's org until closed. */
+    public Scope bind(String instanceUrl) {
+        Org outer = CURRENT.get();
+        CURRENT.set(forOrg(instanceUrl));
+        return () -> {
+            if (outer == null) CURRENT.remove();
+            else CURRENT.set(outer);
+        };
+    }
+
+    /** The host of the instance URL; low-cardinality and readable on a dashboard. */
+    static String orgTag(String instanceUrl) {
+        if (instanceUrl == null || instanceUrl.isBlank()) return DEFAULT_ORG;
+        String key = RetrieveCoordinator.orgKey(instanceUrl);
+        try {
+            String host = URI.create(key).getHost();
+            return host != null ? host : key;
+        } catch (IllegalArgumentException e) {
+            return key;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** The meters of one org. */
+    public static final class Org {
+        private final MeterRegistry registry;
+        private final String org;
+        private final Timer soapSubmit;
+        private final Timer restSubmit;
+        private final DistributionSummary polls;
+        private final Timer pollDuration;
+        private final DistributionSummary payloadBytes;
+        private final Timer decode;
+        private final Timer extractDuration;
+        private final Counter extractEntries;
+        private final Counter extractBytes;
+        private final Timer fileWrite;
+        private final Timer archiveCopy;
+        private final Timer diff;
+        private final Map<String, Counter> results = new ConcurrentHashMap<>();
+
+        Org(MeterRegistry registry, String org) {
+            this.registry = registry;
+            this.org = org;
+            this.soapSubmit = Timer.builder("apex.retrieve.submit").tag("org", org).tag("api", "soap").register(registry);
+            this.restSubmit = Timer.builder("apex.retrieve.submit").tag("org", org).tag("api", "rest").register(registry);
+            this.polls = DistributionSummary.builder("apex.retrieve.polls").tag("org", org).register(registry);
+            this.pollDuration = Timer.builder("apex.retrieve.poll.duration").tag("org", org).register(registry);
+            this.payloadBytes = DistributionSummary.builder("apex.retrieve.payload").baseUnit("bytes").tag("org", org).register(registry);
+            this.decode = Timer.builder("apex.retrieve.decode").tag("org", org).register(registry);
+            this.extractDuration = Timer.builder("apex.extract.duration").tag("org", org).register(registry);
+            this.extractEntries = Counter.builder("apex.extract.entries").tag("org", org).register(registry);
+            this.extractBytes = Counter.builder("apex.extract.bytes").baseUnit("bytes").tag("org", org).register(registry);
+            this.fileWrite = Timer.builder("apex.extract.write").tag("org", org).register(registry);
+            this.archiveCopy = Timer.builder("apex.extract.archive").tag("org", org).register(registry);
+            this.diff = Timer.builder("apex.compare.diff").tag("org", org).register(registry);
+        }
+
+        public void retrieveSubmitted(boolean soap, long nanos) {
+            (soap ? soapSubmit : restSubmit).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** A finished retrieve: how many status checks it took, over how long, and its response size. */
+        public void retrievePolled(int pollCount, long nanos, long responseBytes) {
+            polls.record(pollCount);
+            pollDuration.record(nanos, TimeUnit.NANOSECONDS);
+            payloadBytes.record(responseBytes);
+        }
+
+        public void decoded(long nanos) {
+            decode.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** Totals of one extraction run, recorded once rather than per entry. */
+        public void extracted(int entries, long bytes, long nanos) {
+            extractEntries.increment(entries);
+            extractBytes.increment(bytes);
+            extractDuration.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void fileWritten(long nanos) {
+            fileWrite.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void archiveCopied(long nanos) {
+            archiveCopy.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void compared(String status, long nanos) {
+            diff.record(nanos, TimeUnit.NANOSECONDS);
+            results.computeIfAbsent(status, s -> Counter.builder("apex.compare.results")
+                .tag("org", org).tag("status", s).register(registry)).increment();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.sf.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of tracked operations and their Server-Sent Event streams.
+ *
+ * A stream samples its operation every {@code progress.sse.interval-ms} and sends a snapshot
+ * only when something changed. Ticks a slow client cannot take are dropped, so it receives the
+ * latest state instead of a backlog and never holds up the operation itself. Finished
+ * operations stay visible for {@code progress.retention-ms} for late subscribers.
+ */
+@Service
+public class ProgressTracker {
+
+    private final Map<String, OperationProgress> operations = new ConcurrentHashMap<>();
+    private final Duration interval;
+    private final Duration maxDuration;
+    private final long retentionMillis;
+
+    public ProgressTracker(@Value("${progress.sse.interval-ms:250}") long intervalMillis,
+                           @Value("${progress.sse.max-duration-ms:1800000}") long maxDurationMillis,
+                           @Value("${progress.retention-ms:300000}") long retentionMillis) {
+        this.interval = Duration.ofMillis(Math.max(10, intervalMillis));
+        this.maxDuration = Duration.ofMillis(maxDurationMillis);
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Track the calling thread's work under id until the returned scope is closed. A null id
+     * tracks nothing.
+     */
+    public Scope start(String id, String kind) {
+        purgeFinished();
+        if (id == null || id.isBlank()) {
+            return new Scope(null, null);
+        }
+        OperationProgress progress = new OperationProgress(id, kind);
+        operations.put(id, progress);
+        OperationProgress outer = OperationProgress.CURRENT.get();
+        OperationProgress.CURRENT.set(progress);
+        return new Scope(progress, outer);
+    }
+
+    /** SSE stream of the operation; waits for it to start and completes once it finished. */
+    public Flux<ServerSentEvent<Map<String, Object>>> stream(String id) {
+        return Flux.interval(Duration.ZERO, interval)
+            .onBackpressureDrop()
+            .map(tick -> {
+                OperationProgress progress = operations.get(id);
+                return progress != null ? progress.snapshot() : Map.<String, Object>of("id", id, "phase", "pending", "done", false);
+            })
+            .distinctUntilChanged()
+            .takeUntil(snapshot -> Boolean.TRUE.equals(snapshot.get("done")))
+            .take(maxDuration)
+            .map(snapshot -> ServerSentEvent.<Map<String, Object>>builder(snapshot)
+                .event(String.valueOf(snapshot.get("phase")))
+                .build());
+    }
+
+    private void purgeFinished() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        operations.values().removeIf(p -> p.isDone() && p.getFinishedAt() < cutoff);
+    }
+
+    /** Binding of an operation to the thread that runs it. */
+    public static final class Scope implements AutoCloseable {
+        private final OperationProgress progress;
+        private final OperationProgress outer;
+        private String error;
+
+        private Scope(OperationProgress progress, OperationProgress outer) {
+            this.progress = progress;
+            this.outer = outer;
+        }
+
+        /** Mark the operation failed when the scope closes. */
+        public void failed(Exception e) {
+            error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+
+        @Override
+        public void close() {
+            if (progress == null) return;
+            progress.finish(error);
+            if (outer != null) OperationProgress.CURRENT.set(outer); else OperationProgress.CURRENT.remove();
+        }
+    }
+}
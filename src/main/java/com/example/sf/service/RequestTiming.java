@@ -0,0 +1,105 @@
+package com.example.sf.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Where the time of one API request went, by phase: Salesforce HTTP calls, admission waits,
+ * poll waits, base64 decode, unzip, disk reads and writes, diff and serialization.
+ *
+ * Bound to the request thread like {@link OperationProgress}; services add the duration of a
+ * phase through {@link #current()}, which without a bound request is a sink that records
+ * nothing. Work handed to other threads is not attributed. Phases are reported in the order
+ * first seen, as a Server-Timing header value and optionally in the JSON body.
+ */
+public final class RequestTiming {
+
+    public static final String SF_HTTP = "sf-http";
+    public static final String SF_QUEUE = "sf-queue";
+    public static final String POLL_WAIT = "poll-wait";
+    public static final String DECODE = "decode";
+    public static final String UNZIP = "unzip";
+    public static final String DISK = "disk";
+    public static final String DIFF = "diff";
+    public static final String SERIALIZE = "serialize";
+
+    static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+    private static final RequestTiming NONE = new RequestTiming(0);
+
+    private final long startedNanos;
+    /** phase → {total nanos, count}; requests are short and mostly single-threaded, so a lock is fine */
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    private RequestTiming(long startedNanos) {
+        this.startedNanos = startedNanos;
+    }
+
+    /** The request bound to this thread, or a sink. */
+    public static RequestTiming current() {
+        RequestTiming timing = CURRENT.get();
+        return timing != null ? timing : NONE;
+    }
+
+    /** Time the calling thread's work from now until the returned scope is closed. */
+    public static Scope start() {
+        RequestTiming timing = new RequestTiming(System.nanoTime());
+        RequestTiming outer = CURRENT.get();
+        CURRENT.set(timing);
+        return new Scope(timing, outer);
+    }
+
+    public void add(String phase, long nanos) {
+        if (this == NONE) return;
+        synchronized (phases) {
+            long[] total = phases.computeIfAbsent(phase, p -> new long[2]);
+            total[0] += nanos;
+            total[1]++;
+        }
+    }
+
+    /** Server-Timing header value: every phase plus the total so far, in milliseconds. */
+    public String header() {
+        StringBuilder out = new StringBuilder();
+        synchronized (phases) {
+            phases.forEach((phase, total) -> out.append(phase).append(";dur=").append(millis(total[0]))
+                .append(";desc=\"").append(total[1]).append("x\", "));
+        }
+        return out.append("total;dur=").append(millis(System.nanoTime() - startedNanos)).toString();
+    }
+
+    /** The same breakdown for a JSON body: phase → {ms, count}, plus totalMs. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (phases) {
+            phases.forEach((phase, total) -> out.put(phase, Map.of("ms", Double.parseDouble(millis(total[0])), "count", total[1])));
+        }
+        out.put("totalMs", Double.parseDouble(millis(System.nanoTime() - startedNanos)));
+        return out;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    /** Unbinds the request from the thread; the timing itself stays readable. */
+    public static final class Scope implements AutoCloseable {
+        private final RequestTiming timing;
+        private final RequestTiming outer;
+
+        private Scope(RequestTiming timing, RequestTiming outer) {
+            this.timing = timing;
+            this.outer = outer;
+        }
+
+        public RequestTiming timing() {
+            return timing;
+        }
+
+        @Override
+        public void close() {
+            if (outer == null) CURRENT.remove();
+            else CURRENT.set(outer);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.sf.service;
+
+import com.example.sf.model.RetrieveCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Checkpoints of running retrieves under storage/apex/retrieves: one {asyncId}.properties file
+ * per retrieve (async id, org, session, phase) and, once downloaded, the retrieved ZIP as
+ * {asyncId}.zip until it is stored as a snapshot. Checkpoints are rewritten through an atomic
+ * rename, so a crash leaves either the previous or the next phase on disk.
+ *
+ * The files hold the org's access token and are created readable by the owner only where the
+ * file system supports POSIX permissions.
+ */
+@Service
+public class RetrieveCheckpointStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetrieveCheckpointStore.class);
+
+    private final Path directory;
+
+    public RetrieveCheckpointStore(@Value("${storage.apex.path:storage/apex}") String storageDir) throws IOException {
+        this.directory = Path.of(storageDir).resolve("retrieves");
+        Files.createDirectories(directory);
+    }
+
+    /** Record that asyncId is being polled. */
+    public void begin(String asyncId, String instanceUrl, String token) throws IOException {
+        write(new RetrieveCheckpoint(asyncId, instanceUrl, token, RetrieveCheckpoint.POLLING, System.currentTimeMillis()));
+    }
+
+    /**
+     * Keep the downloaded ZIP with the checkpoint and move it to the extracting phase. Returns the
+     * kept ZIP; the caller still closes payload.
+     */
+    public Path keepPayload(String asyncId, RetrievePayload payload) throws IOException {
+        RetrieveCheckpoint checkpoint = read(asyncId);
+        Path zip = zipPath(asyncId);
+        Path tmp = directory.resolve(asyncId + ".zip.tmp");
+        payload.transferTo(tmp);
+        Files.move(tmp, zip, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (checkpoint != null) {
+            write(checkpoint.withPhase(RetrieveCheckpoint.EXTRACTING));
+        }
+        return zip;
+    }
+
+    /** The retrieve is stored (or failed for good): forget it. */
+    public void complete(String asyncId) {
+        try {
+            Files.deleteIfExists(checkpointPath(asyncId));
+            Files.deleteIfExists(zipPath(asyncId));
+        } catch (IOException e) {
+            LOG.warn("Failed to remove checkpoint of retrieve {}: {}", asyncId, e.getMessage());
+        }
+    }
+
+    /**
+     * The retrieve could not be polled or stored. A {@link RetrieveFailedException} is final, so
+     * the checkpoint is dropped; after any other failure (I/O errors, timeouts, an interrupt) it
+     * is kept, and the retrieve is resumed on the next start.
+     */
+    public void failed(String asyncId, Exception failure) {
+        if (failure instanceof RetrieveFailedException) {
+            complete(asyncId);
+        } else {
+            LOG.warn("Keeping checkpoint of retrieve {} to resume after a restart: {}", asyncId, failure.toString());
+        }
+    }
+
+    /** Retrieves that were still running when the process stopped. */
+    public List<RetrieveCheckpoint> pending() throws IOException {
+        List<RetrieveCheckpoint> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".properties")) continue;
+                RetrieveCheckpoint checkpoint = read(name.substring(0, name.length() - ".properties".length()));
+                if (checkpoint != null) out.add(checkpoint);
+            }
+        }
+        return out;
+    }
+
+    /** The ZIP kept for asyncId, if its download completed. */
+    public Path keptPayload(String asyncId) {
+        Path zip = zipPath(asyncId);
+        return Files.isRegularFile(zip) ? zip : null;
+    }
+
+    private void write(RetrieveCheckpoint checkpoint) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("asyncId", checkpoint.getAsyncId());
+        props.setProperty("instanceUrl", checkpoint.getInstanceUrl());
+        props.setProperty("token", checkpoint.getToken());
+        props.setProperty("phase", checkpoint.getPhase());
+        props.setProperty("startedAt", String.valueOf(checkpoint.getStartedAt()));
+
+        Path tmp = directory.resolve(checkpoint.getAsyncId() + ".properties.tmp");
+        Files.deleteIfExists(tmp);
+        createOwnerOnly(tmp);
+        try (OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.TRUNCATE_EXISTING)) {
+            props.store(out, "Retrieve checkpoint");
+        }
+        Files.move(tmp, checkpointPath(checkpoint.getAsyncId()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private RetrieveCheckpoint read(String asyncId) throws IOException {
+        Path file = checkpointPath(asyncId);
+        if (!Files.exists(file)) return null;
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+        return new RetrieveCheckpoint(props.getProperty("asyncId", asyncId), props.getProperty("instanceUrl"),
+            props.getProperty("token"), props.getProperty("phase", RetrieveCheckpoint.POLLING),
+            Long.parseLong(props.getProperty("startedAt", "0")));
+    }
+
+    private static void createOwnerOnly(Path file) throws IOException {
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file);
+        }
+    }
+
+    private Path checkpointPath(String asyncId) {
+        return directory.resolve(asyncId + ".properties");
+    }
+
+    private Path zipPath(String asyncId) {
+        return directory.resolve(asyncId + ".zip");
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.sf.service;
+
+import com.example.sf.model.RetrieveOutcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight full-org retrieves. While a retrieve-and-poll runs for an org, further callers
+ * for the same org wait for it and get its result instead of starting their own Metadata
+ * retrieve; a result younger than the freshness window is handed out without retrieving.
+ */
+@Service
+public class RetrieveCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetrieveCoordinator.class);
+
+    private final SalesforceApexService apexService;
+    private final long freshnessWindowMillis;
+    private final Map<String, CompletableFuture<RetrieveOutcome>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, RetrieveOutcome> latest = new ConcurrentHashMap<>();
+
+    public RetrieveCoordinator(SalesforceApexService apexService,
+                               @Value("${salesforce.retrieve.freshness-window-ms:30000}") long freshnessWindowMillis) {
+        this.apexService = apexService;
+        this.freshnessWindowMillis = freshnessWindowMillis;
+    }
+
+    public RetrieveOutcome retrieveAndPoll(String token, String instanceUrl) throws Exception {
+        return await(coalesce(instanceUrl, () -> {
+            try {
+                String retrieveId = apexService.sendRetrieveRequestAndGetId(token, instanceUrl);
+                LOG.info("✅ Retrieve ID → {} for {}", retrieveId, orgKey(instanceUrl));
+                Map<String, String> classes = apexService.waitForRetrieveAndDownload(retrieveId, token, instanceUrl);
+                return CompletableFuture.completedFuture(
+                    new RetrieveOutcome(retrieveId, classes, System.currentTimeMillis(), RetrieveOutcome.RETRIEVED));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }));
+    }
+
+    /**
+     * The same coalescing for a retrieve that completes asynchronously: a recent result, the
+     * retrieve already running for the org, or else the one started by retrieve.
+     */
+    public CompletableFuture<RetrieveOutcome> coalesce(String instanceUrl, Supplier<CompletableFuture<RetrieveOutcome>> retrieve) {
+        String org = orgKey(instanceUrl);
+        RetrieveOutcome recent = freshResult(org);
+        if (recent != null) {
+            LOG.info("♻️  Reusing retrieve {} for {} ({} ms old)", recent.getRetrieveId(), org,
+                System.currentTimeMillis() - recent.getCompletedAt());
+            return CompletableFuture.completedFuture(recent.withSource(RetrieveOutcome.CACHED));
+        }
+
+        CompletableFuture<RetrieveOutcome> mine = new CompletableFuture<>();
+        CompletableFuture<RetrieveOutcome> running = inFlight.putIfAbsent(org, mine);
+        if (running != null) {
+            LOG.info("🔗 Retrieve already running for {}, waiting for it", org);
+            return running.thenApply(outcome -> outcome.withSource(RetrieveOutcome.JOINED));
+        }
+
+        // A retrieve may have finished between the freshness check and claiming the slot
+        recent = freshResult(org);
+        if (recent != null) {
+            mine.complete(recent);
+            inFlight.remove(org, mine);
+            return CompletableFuture.completedFuture(recent.withSource(RetrieveOutcome.CACHED));
+        }
+
+        CompletableFuture<RetrieveOutcome> started;
+        try {
+            started = retrieve.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((outcome, error) -> {
+            if (error == null) {
+                remember(org, outcome);
+                mine.complete(outcome);
+            } else {
+                mine.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+            }
+            inFlight.remove(org, mine);
+        });
+        return mine;
+    }
+
+    /** Drop the remembered result so the next call for the org retrieves again. */
+    public void invalidate(String instanceUrl) {
+        latest.remove(orgKey(instanceUrl));
+    }
+
+    /**
+     * Keep the result for the freshness window only: it holds every class source of the org, so
+     * it is dropped when the window ends even if no caller for the org comes back.
+     */
+    private void remember(String org, RetrieveOutcome outcome) {
+        if (freshnessWindowMillis <= 0) return;
+        latest.put(org, outcome);
+        CompletableFuture.delayedExecutor(freshnessWindowMillis, TimeUnit.MILLISECONDS)
+            .execute(() -> latest.remove(org, outcome));
+    }
+
+    private RetrieveOutcome freshResult(String org) {
+        RetrieveOutcome recent = latest.get(org);
+        if (recent == null) return null;
+        if (System.currentTimeMillis() - recent.getCompletedAt() <= freshnessWindowMillis) return recent;
+        latest.remove(org, recent);
+        return null;
+    }
+
+    private static RetrieveOutcome await(CompletableFuture<RetrieveOutcome> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    /** Org identity for coalescing: the instance URL, case and trailing slash insensitive. */
+    static String orgKey(String instanceUrl) {
+        String key = instanceUrl.trim().toLowerCase(Locale.ROOT);
+        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.sf.service;
+
+/**
+ * A retrieve that failed for good: Salesforce answered with a SOAP fault or a 4xx, reported the
+ * retrieve as Failed or Canceled, or returned no class files. Trying it again cannot succeed, so
+ * its checkpoint is dropped; any other failure (I/O errors, timeouts) keeps the checkpoint for
+ * {@link RetrieveResumer}.
+ */
+public class RetrieveFailedException extends IllegalStateException {
+
+    public RetrieveFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.sf.service;
+
+import com.example.sf.model.ExtractionResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Decoded ZIP of a completed Metadata retrieve. Small payloads are kept as a byte[]; payloads
+ * over the configured memory budget live in a temp file and are extracted through
+ * {@link ZipFile} random access. close() deletes the temp file, unless the payload wraps a
+ * file it does not own ({@link #ofKeptFile}).
+ */
+public final class RetrievePayload implements AutoCloseable {
+
+    private static final RetrievePayload EMPTY = new RetrievePayload(new byte[0], null, false);
+
+    private final byte[] bytes;
+    private final Path file;
+    private final boolean kept;
+
+    private RetrievePayload(byte[] bytes, Path file, boolean kept) {
+        this.bytes = bytes;
+        this.file = file;
+        this.kept = kept;
+    }
+
+    public static RetrievePayload ofBytes(byte[] bytes) {
+        return new RetrievePayload(bytes, null, false);
+    }
+
+    public static RetrievePayload ofFile(Path zipFile) {
+        return new RetrievePayload(null, zipFile, false);
+    }
+
+    /** A ZIP owned by someone else (e.g. a retrieve checkpoint): never moved or deleted. */
+    public static RetrievePayload ofKeptFile(Path zipFile) {
+        return new RetrievePayload(null, zipFile, true);
+    }
+
+    /** Retrieve finished without a zipFile in the response. */
+    public static RetrievePayload empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return file == null && bytes.length == 0;
+    }
+
+    public boolean isOnDisk() {
+        return file != null;
+    }
+
+    public long size() throws IOException {
+        return file != null ? Files.size(file) : bytes.length;
+    }
+
+    /** Extract into a staging newDir, comparing against the published baselineDir. */
+    public ExtractionResult extractTo(ZipExtractionPipeline pipeline, Path baselineDir, Path newDir, Path oldDir) throws Exception {
+        if (file != null) {
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                return pipeline.extract(zip, baselineDir, newDir, oldDir);
+            }
+        }
+        return pipeline.extract(new ByteArrayInputStream(bytes), baselineDir, newDir, oldDir);
+    }
+
+    /** Move (or write) the ZIP to target, replacing it; the payload should be closed afterwards. */
+    public void transferTo(Path target) throws IOException {
+        if (file != null && kept) {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        } else if (file != null) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.write(target, bytes);
+        }
+    }
+
+    /** Class name (without .cls) to source for every .cls entry, read without writing anything to storage. */
+    public Map<String, String> readClassSources() throws IOException {
+        Map<String, String> classes = new LinkedHashMap<>();
+        if (file != null) {
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (isClassEntry(entry)) {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            classes.put(className(entry), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                        }
+                    }
+                }
+            }
+        } else if (bytes.length > 0) {
+            try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+                ZipEntry entry;
+                while ((entry = zin.getNextEntry()) != null) {
+                    if (isClassEntry(entry)) {
+                        classes.put(className(entry), new String(zin.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static boolean isClassEntry(ZipEntry entry) {
+        return !entry.isDirectory() && entry.getName().endsWith(".cls");
+    }
+
+    private static String className(ZipEntry entry) {
+        String name = entry.getName();
+        return name.substring(name.lastIndexOf('/') + 1, name.length() - ".cls".length());
+    }
+
+    /** Materialize the payload in memory; defeats the memory budget for on-disk payloads. */
+    public byte[] toByteArray() throws IOException {
+        return file != null ? Files.readAllBytes(file) : bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null && !kept) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.sf.service;
+
+import com.example.sf.model.RetrieveCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Picks up the retrieves that were running when the process last stopped: retrieves still
+ * being polled resume polling, downloaded ones are stored from the kept ZIP. Runs as background
+ * Salesforce traffic on its own thread so startup is not delayed.
+ */
+@Component
+public class RetrieveResumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetrieveResumer.class);
+
+    private final RetrieveCheckpointStore checkpoints;
+    private final SalesforceApexService apexService;
+    private final SalesforceRequestScheduler scheduler;
+
+    public RetrieveResumer(RetrieveCheckpointStore checkpoints, SalesforceApexService apexService,
+                           SalesforceRequestScheduler scheduler) {
+        this.checkpoints = checkpoints;
+        this.apexService = apexService;
+        this.scheduler = scheduler;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePending() throws Exception {
+        List<RetrieveCheckpoint> pending = checkpoints.pending();
+        if (pending.isEmpty()) return;
+        LOG.info("🔁 Resuming {} interrupted retrieve(s)", pending.size());
+
+        Thread t = new Thread(() -> {
+            for (RetrieveCheckpoint checkpoint : pending) {
+                try {
+                    int classes = scheduler.inBackground(() -> apexService.resumeRetrieve(checkpoint)).size();
+                    LOG.info("✅ Resumed retrieve {} ({} phase) stored {} classes",
+                        checkpoint.getAsyncId(), checkpoint.getPhase(), classes);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    LOG.warn("Could not resume retrieve {}: {}", checkpoint.getAsyncId(), e.getMessage());
+                }
+            }
+        }, "apex-retrieve-resume");
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -1,12 +1,24 @@
 package com.example.sf.service;
 
+import com.example.sf.model.ApexFileProperties;
+import com.example.sf.model.ExtractionResult;
+import com.example.sf.model.RetrieveCheckpoint;
+import com.example.sf.util.ListMetadataParser;
+import com.example.sf.util.SpillBuffer;
+import com.example.sf.util.XmlStreamUtil;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.zip.*;
-import com.fasterxml.jackson.databind.JsonNode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.http.*;
 import java.net.*;
@@ -18,9 +30,48 @@ public class SalesforceApexService {
 
     private static final String METADATA_URL_SUFFIX = "/services/Soap/m/57.0";
     private static final Logger LOG = LoggerFactory.getLogger(SalesforceApexService.class);
+    // Apex class name, optionally behind a namespace prefix: letters, digits and single underscores
+    private static final Pattern APEX_CLASS_NAME =
+        Pattern.compile("(?:[A-Za-z][A-Za-z0-9]*(?:_[A-Za-z0-9]+)*__)?[A-Za-z][A-Za-z0-9]*(?:_[A-Za-z0-9]+)*");
 
-    private final HttpClient http = HttpClient.newHttpClient();
     private final ObjectMapper mapper = new ObjectMapper();
+    private final SalesforceRequestScheduler requests;
+    private final OrgRegistry orgs;
+    private final RetrieveCheckpointStore checkpoints;
+    private final ChangeJournal journal;
+    private final PipelineMetrics metrics;
+    private final long memoryBudgetBytes;
+    private final Path spillDir;
+    private final ApexClassBatcher classBatcher;
+    private final long classListTtlMillis;
+    private final Map<String, CachedListing> classListings = new ConcurrentHashMap<>();
+
+    public SalesforceApexService(SalesforceRequestScheduler scheduler,
+                                 OrgRegistry orgs,
+                                 RetrieveCheckpointStore checkpoints,
+                                 ChangeJournal journal,
+                                 PipelineMetrics metrics,
+                                 @Value("${storage.apex.retrieve.memory-budget-bytes:33554432}") long memoryBudgetBytes,
+                                 @Value("${storage.apex.retrieve.spill-dir:${java.io.tmpdir}}") String spillDir,
+                                 @Value("${salesforce.class-fetch.window-ms:50}") long classFetchWindowMillis,
+                                 @Value("${salesforce.class-fetch.max-batch:100}") int classFetchMaxBatch,
+                                 @Value("${salesforce.class-fetch.cache-ttl-ms:300000}") long classCacheTtlMillis,
+                                 @Value("${salesforce.class-list.cache-ttl-ms:60000}") long classListTtlMillis) {
+        this.requests = scheduler;
+        this.orgs = orgs;
+        this.checkpoints = checkpoints;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillDir = Path.of(spillDir);
+        this.classBatcher = new ApexClassBatcher(this::retrieveClasses, classFetchWindowMillis, classFetchMaxBatch, classCacheTtlMillis);
+        this.classListTtlMillis = classListTtlMillis;
+    }
+
+    @PreDestroy
+    public void close() {
+        classBatcher.close();
+    }
 
     public String startRetrieve(String token, String instanceUrl) throws Exception {
         String payload = """
@@ -42,7 +93,9 @@ public class SalesforceApexService {
             .POST(HttpRequest.BodyPublishers.ofString(payload))
             .build();
 
-        HttpResponse<String> res = http.send(req, HttpResponse.BodyHandlers.ofString());
+        long submitted = System.nanoTime();
+        HttpResponse<String> res = requests.send(req, HttpResponse.BodyHandlers.ofString());
+        metrics.forOrg(instanceUrl).retrieveSubmitted(false, System.nanoTime() - submitted);
         if (res.statusCode() < 200 || res.statusCode() >= 300) {
             throw new IllegalStateException("Metadata retrieve failed: status=" + res.statusCode() + " body=" + res.body());
         }
@@ -51,115 +104,111 @@ public class SalesforceApexService {
     }
 
     public byte[] pollRetrieve(String token, String instanceUrl, String retrieveId) throws Exception {
+        try (RetrievePayload payload = pollRetrievePayload(token, instanceUrl, retrieveId)) {
+            return payload.toByteArray();
+        }
+    }
+
+    /**
+     * Poll the REST retrieve until it finishes. Responses larger than the memory budget are
+     * spilled to a temp file and their zipFile is decoded straight to disk.
+     */
+    public RetrievePayload pollRetrievePayload(String token, String instanceUrl, String retrieveId) throws Exception {
+        PipelineMetrics.Org orgMetrics = metrics.forOrg(instanceUrl);
+        long started = System.nanoTime();
+        int polls = 0;
         while (true) {
-            Thread.sleep(1500);
+            pollWait(1500);
             HttpRequest check = HttpRequest.newBuilder()
                 .uri(URI.create(instanceUrl + "/services/data/v57.0/metadata/retrieveResult?retrieveRequestId=" + retrieveId))
                 .header("Authorization", "Bearer " + token)
                 .GET()
                 .build();
 
-            HttpResponse<String> resp = http.send(check, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = mapper.readTree(resp.body());
-            String status = json.path("status").asText();
-
-            LOG.info("Retrieve status: {}", status);
-
-            if ("Succeeded".equalsIgnoreCase(status)) {
-                String b64 = json.path("zipFile").asText();
-                byte[] zipBytes = Base64.getDecoder().decode(b64);
-                return zipBytes;
-            }
-            if ("Failed".equalsIgnoreCase(status)) {
-                throw new IllegalStateException("Retrieve Failed: " + json.path("errorMessage").asText());
+            polls++;
+            HttpResponse<InputStream> resp = requests.send(check, HttpResponse.BodyHandlers.ofInputStream());
+            try (SpillBuffer body = newSpillBuffer()) {
+                try (InputStream in = resp.body()) {
+                    in.transferTo(body);
+                }
+                RetrievePayload payload = readRetrieveResult(body, orgMetrics);
+                if (payload != null) {
+                    orgMetrics.retrievePolled(polls, System.nanoTime() - started, body.size());
+                    return payload;
+                }
             }
         }
     }
 
-    public Map<String, String> extractCls(byte[] zipBytes) throws Exception {
-        Map<String, String> classes = new HashMap<>();
-        
-        Path newDir = Path.of("storage", "apex", "new");
-        Path oldDir = Path.of("storage", "apex", "old");
-        if (!Files.exists(newDir)) Files.createDirectories(newDir);
-        if (!Files.exists(oldDir)) Files.createDirectories(oldDir);
-        
-        String timestamp = String.valueOf(System.currentTimeMillis());
-        int extractedCount = 0;
-        int archivedCount = 0;
-        
-        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-            ZipEntry e;
-            while ((e = zin.getNextEntry()) != null) {
-                String entryName = e.getName();
-                
-                // Extract all files preserving folder structure
-                if (!e.isDirectory()) {
-                    Path targetFile = newDir.resolve(entryName);
-                    Path parentDir = targetFile.getParent();
-                    if (parentDir != null && !Files.exists(parentDir)) {
-                        Files.createDirectories(parentDir);
-                    }
-                    
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    zin.transferTo(out);
-                    byte[] fileBytes = out.toByteArray();
-                    String newContent = new String(fileBytes, java.nio.charset.StandardCharsets.UTF_8);
-                    
-                    // Compare content if file exists
-                    if (Files.exists(targetFile)) {
-                        String existingContent = Files.readString(targetFile, java.nio.charset.StandardCharsets.UTF_8);
-                        
-                        // If content differs, archive the old file with timestamp
-                        if (!existingContent.equals(newContent)) {
-                            // Create archive path with timestamp in filename
-                            String fileName = targetFile.getFileName().toString();
-                            String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
-                            String extension = fileName.substring(fileName.lastIndexOf('.'));
-                            String archivedFileName = baseName + "_" + timestamp + extension;
-                            
-                            // Preserve folder structure in old/
-                            Path relativePath = newDir.relativize(targetFile.getParent());
-                            Path oldSubDir = oldDir.resolve(relativePath);
-                            if (!Files.exists(oldSubDir)) Files.createDirectories(oldSubDir);
-                            
-                            // Delete all previous archived versions of this file
-                            deleteOldArchivedVersions(oldSubDir, baseName, extension);
-                            
-                            Path archivedFile = oldSubDir.resolve(archivedFileName);
-                            Files.copy(targetFile, archivedFile, StandardCopyOption.REPLACE_EXISTING);
-                            archivedCount++;
-                            LOG.info("📦 Archived changed file: {} → {}", entryName, archivedFile.getFileName());
-                        }
-                    }
-                    
-                    // Write the new content
-                    Files.write(targetFile, fileBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    extractedCount++;
-                    
-                    // Collect .cls files in map
-                    if (entryName.endsWith(".cls")) {
-                        String className = Paths.get(entryName).getFileName().toString().replace(".cls", "");
-                        classes.put(className, newContent);
-                        LOG.info("✅ Extracted .cls: {} ({} bytes)", entryName, fileBytes.length);
-                    }
+    private RetrievePayload readRetrieveResult(SpillBuffer body, PipelineMetrics.Org orgMetrics) throws Exception {
+        String status = null;
+        String errorMessage = null;
+        try (InputStream in = body.openInputStream(); JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("status".equals(field)) status = parser.getValueAsString();
+                    else if ("errorMessage".equals(field)) errorMessage = parser.getValueAsString();
+                    else parser.skipChildren(); // zipFile is skipped unread on this pass
                 }
             }
         }
-        
-        LOG.info("✅ Extracted {} files to {}", extractedCount, newDir.toAbsolutePath());
-        if (archivedCount > 0) {
-            LOG.info("📦 Archived {} changed files to {} with timestamp {}", archivedCount, oldDir.toAbsolutePath(), timestamp);
+
+        LOG.info("Retrieve status: {}", status);
+
+        if ("Failed".equalsIgnoreCase(status) || "Canceled".equalsIgnoreCase(status)) {
+            throw new RetrieveFailedException("Retrieve " + status + ": " + errorMessage);
         }
-        LOG.info("✅ Found {} Apex classes", classes.size());
-        
-        return classes;
+        if (!"Succeeded".equalsIgnoreCase(status)) {
+            return null;
+        }
+
+        long decodeStarted = System.nanoTime();
+        if (!body.isSpilled()) {
+            String b64 = mapper.readTree(body.toString(StandardCharsets.UTF_8)).path("zipFile").asText();
+            byte[] zipBytes = Base64.getDecoder().decode(b64);
+            decoded(orgMetrics, System.nanoTime() - decodeStarted);
+            return RetrievePayload.ofBytes(zipBytes);
+        }
+
+        Path zip = Files.createTempFile(createSpillDir(), "sf-retrieve-", ".zip");
+        try (InputStream in = body.openInputStream(); JsonParser parser = mapper.getFactory().createParser(in)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("zipFile".equals(field)) {
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(zip))) {
+                        parser.readBinaryValue(out);
+                    }
+                    break;
+                }
+                parser.skipChildren();
+            }
+        } catch (Exception ex) {
+            Files.deleteIfExists(zip);
+            throw ex;
+        }
+        decoded(orgMetrics, System.nanoTime() - decodeStarted);
+        LOG.info("Spilled retrieve result ({} bytes) decoded to {} ({} bytes)", body.size(), zip, Files.size(zip));
+        return RetrievePayload.ofFile(zip);
+    }
+
+    public Map<String, String> extractCls(byte[] zipBytes) throws Exception {
+        ExtractionResult result = save(orgs.get(OrgRegistry.DEFAULT_ORG), RetrievePayload.ofBytes(zipBytes));
+        LOG.info("✅ Found {} Apex classes", result.getClasses().size());
+        return result.getClasses();
     }
 
     public Map<String, String> retrieveAllApexClasses(String token, String instanceUrl) throws Exception {
         String retrieveId = startRetrieve(token, instanceUrl);
-        byte[] zipBytes = pollRetrieve(token, instanceUrl, retrieveId);
-        return extractCls(zipBytes);
+        try (RetrievePayload payload = pollRetrievePayload(token, instanceUrl, retrieveId)) {
+            ExtractionResult result = save(orgs.forInstance(instanceUrl), payload);
+            invalidateClassList(instanceUrl);
+            LOG.info("✅ Found {} Apex classes", result.getClasses().size());
+            return result.getClasses();
+        }
     }
 
     public Map<String, String> waitForRetrieveAndDownload(
@@ -168,7 +217,114 @@ public class SalesforceApexService {
           String instanceUrl
         ) throws Exception {
 
+        // Checkpointed so a restart resumes polling (or storing) instead of retrieving again
+        checkpoints.begin(asyncId, instanceUrl, token);
+        Map<String, String> classes;
+        try {
+          classes = storeDownloaded(asyncId, waitForRetrievePayload(asyncId, token, instanceUrl), instanceUrl);
+        } catch (Exception e) {
+          checkpoints.failed(asyncId, e);
+          throw e;
+        }
+        checkpoints.complete(asyncId);
+        return classes;
+    }
+
+    /**
+     * Keep a downloaded retrieve with its checkpoint, then store it in the snapshots of the org
+     * behind instanceUrl. Closes payload; completing the checkpoint is up to the caller.
+     */
+    public Map<String, String> storeDownloaded(String asyncId, RetrievePayload payload, String instanceUrl) throws Exception {
+        Path kept;
+        try (payload) {
+          if (payload.isEmpty()) {
+            return Collections.emptyMap();
+          }
+          kept = checkpoints.keepPayload(asyncId, payload);
+        }
+        return storeRetrieve(RetrievePayload.ofKeptFile(kept), instanceUrl);
+    }
+
+    /**
+     * Continue a retrieve recorded before a restart: store the kept ZIP if the download had
+     * completed, otherwise poll the retrieve again.
+     */
+    public Map<String, String> resumeRetrieve(RetrieveCheckpoint checkpoint) throws Exception {
+        Path kept = checkpoints.keptPayload(checkpoint.getAsyncId());
+        if (kept == null) {
+          return waitForRetrieveAndDownload(checkpoint.getAsyncId(), checkpoint.getToken(), checkpoint.getInstanceUrl());
+        }
+        Map<String, String> classes;
+        try {
+          classes = storeRetrieve(RetrievePayload.ofKeptFile(kept), checkpoint.getInstanceUrl());
+        } catch (Exception e) {
+          checkpoints.failed(checkpoint.getAsyncId(), e);
+          throw e;
+        }
+        checkpoints.complete(checkpoint.getAsyncId());
+        return classes;
+    }
+
+    /**
+     * Store a downloaded retrieve as the new snapshot. An interrupted store leaves only an
+     * unpublished staging snapshot behind, which is discarded on the next start; a retrieve
+     * without class files is refused and leaves the published snapshot as it was.
+     */
+    private Map<String, String> storeRetrieve(RetrievePayload payload, String instanceUrl) throws Exception {
+        OperationProgress.current().phase("extracting");
+        try (payload; PipelineMetrics.Scope bound = metrics.bind(instanceUrl)) {
+          // Extract ZIP structure to storage/apex/new/ with content-based archival
+          // (or keep it as new.zip in zip snapshot mode)
+          // This includes unpackaged/classes/*.cls and *.cls-meta.xml files
+          ExtractionResult extraction = save(orgs.forInstance(instanceUrl), payload);
+          invalidateClassList(instanceUrl);
+
+          return extraction.getClasses();
+        }
+    }
+
+    /**
+     * Poll checkRetrieveStatus until the retrieve finishes and return its ZIP without storing
+     * it anywhere; the caller closes the payload.
+     */
+    public RetrievePayload waitForRetrievePayload(String asyncId, String token, String instanceUrl) throws Exception {
+        StatusPoller poller = statusPoller(asyncId, token, instanceUrl);
         while (true) {
+            RetrievePayload payload = poller.check();
+            if (payload != null) {
+                return payload;
+            }
+            pollWait(1000);
+        }
+    }
+
+    /**
+     * checkRetrieveStatus one call at a time, for callers that wait between polls without
+     * holding a thread (see {@link OrgSyncService}).
+     */
+    public StatusPoller statusPoller(String asyncId, String token, String instanceUrl) {
+        return new StatusPoller(asyncId, token, instanceUrl);
+    }
+
+    public final class StatusPoller {
+        private final String asyncId;
+        private final String token;
+        private final String instanceUrl;
+        private final PipelineMetrics.Org orgMetrics;
+        private final long started = System.nanoTime();
+        private int polls;
+
+        private StatusPoller(String asyncId, String token, String instanceUrl) {
+            this.asyncId = asyncId;
+            this.token = token;
+            this.instanceUrl = instanceUrl;
+            this.orgMetrics = metrics.forOrg(instanceUrl);
+        }
+
+        /** One status check: the finished retrieve's ZIP (the caller closes it), or null while it runs. */
+        public RetrievePayload check() throws Exception {
+            OperationProgress progress = OperationProgress.current();
+            progress.phase("polling");
 
             String checkEnvelope = """
                     <soapenv:Envelope xmlns:soapenv="http://schemas.xmlsoap.org/soap/envelope/"
@@ -191,148 +347,160 @@ public class SalesforceApexService {
                     .POST(HttpRequest.BodyPublishers.ofString(checkEnvelope))
                     .build();
 
-            HttpResponse<String> resp = http.send(checkReq, HttpResponse.BodyHandlers.ofString());
-
-            // Log status for debugging
-            try {
-              LOG.info("checkRetrieveStatus response code={} snippet={}", resp.statusCode(),
-                  resp.body() == null ? "" : resp.body().substring(0, Math.min(400, resp.body().length())).replaceAll("\n", " "));
-            } catch (Exception ignore) {}
-
-            String doneTag = extractTag(resp.body(), "done");
-            if ("true".equalsIgnoreCase(doneTag)) {
-              String zipBase64 = extractTag(resp.body(), "zipFile");
-              if (zipBase64 == null) {
-                // attempt a more lenient extraction if namespaces or whitespace exist
-                java.util.regex.Matcher m = java.util.regex.Pattern.compile("(?s)<zipFile>(.*?)</zipFile>").matcher(resp.body());
-                if (m.find()) zipBase64 = m.group(1);
-              }
-
-              if (zipBase64 == null || zipBase64.isBlank()) {
-                LOG.warn("Metadata retrieve completed but no <zipFile> content found. Response length={}", resp.body() == null ? 0 : resp.body().length());
-                return Collections.emptyMap();
-              }
-
-              LOG.info("zipFile base64 length={}", zipBase64.length());
-              byte[] zipBytes = Base64.getDecoder().decode(zipBase64);
-
-              // Extract ZIP structure to storage/apex/new/ with content-based archival
-              // This includes unpackaged/classes/*.cls and *.cls-meta.xml files
-              Path newDir = Path.of("storage", "apex", "new");
-              Path oldDir = Path.of("storage", "apex", "old");
-              if (!Files.exists(newDir)) Files.createDirectories(newDir);
-              if (!Files.exists(oldDir)) Files.createDirectories(oldDir);
-              
-              String timestamp = String.valueOf(System.currentTimeMillis());
-              boolean hasCls = false;
-              int extractedCount = 0;
-              int archivedCount = 0;
-              
-              try (ZipInputStream zin2 = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-                ZipEntry entry;
-                while ((entry = zin2.getNextEntry()) != null) {
-                  String entryName = entry.getName();
-                  
-                  if (entry.isDirectory()) {
-                    Path dir = newDir.resolve(entryName);
-                    if (!Files.exists(dir)) Files.createDirectories(dir);
-                    continue;
-                  }
-                  
-                  // Save all files preserving folder structure with archival logic
-                  Path targetFile = newDir.resolve(entryName);
-                  Path parentDir = targetFile.getParent();
-                  if (parentDir != null && !Files.exists(parentDir)) {
-                    Files.createDirectories(parentDir);
-                  }
-                  
-                  ByteArrayOutputStream out = new ByteArrayOutputStream();
-                  zin2.transferTo(out);
-                  byte[] fileBytes = out.toByteArray();
-                  String newContent = new String(fileBytes, java.nio.charset.StandardCharsets.UTF_8);
-                  
-                  // Content-based archival: compare with existing file
-                  if (Files.exists(targetFile)) {
-                    String existingContent = Files.readString(targetFile, java.nio.charset.StandardCharsets.UTF_8);
-                    
-                    // If content differs, archive old file with timestamp
-                    if (!existingContent.equals(newContent)) {
-                      String fileName = targetFile.getFileName().toString();
-                      String baseName = fileName.contains(".") 
-                          ? fileName.substring(0, fileName.lastIndexOf('.'))
-                          : fileName;
-                      String extension = fileName.contains(".")
-                          ? fileName.substring(fileName.lastIndexOf('.'))
-                          : "";
-                      String archivedFileName = baseName + "_" + timestamp + extension;
-                      
-                      // Preserve folder structure in old/
-                      Path relativePath = newDir.relativize(targetFile.getParent());
-                      Path oldSubDir = oldDir.resolve(relativePath);
-                      if (!Files.exists(oldSubDir)) Files.createDirectories(oldSubDir);
-                      
-                      // Delete all previous archived versions of this file
-                      deleteOldArchivedVersions(oldSubDir, baseName, extension);
-                      
-                      Path archivedFile = oldSubDir.resolve(archivedFileName);
-                      Files.copy(targetFile, archivedFile, StandardCopyOption.REPLACE_EXISTING);
-                      archivedCount++;
-                      LOG.info("📦 Archived changed file: {} → {}", entryName, archivedFile.getFileName());
+            progress.pollAttempt();
+            polls++;
+            HttpResponse<InputStream> resp = requests.send(checkReq, HttpResponse.BodyHandlers.ofInputStream());
+
+            RetrievePayload payload;
+            try (SpillBuffer body = newSpillBuffer()) {
+                try (InputStream in = resp.body()) {
+                    byte[] buf = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        body.write(buf, 0, n);
+                        progress.downloaded(n);
                     }
-                  }
-                  
-                  // Write new content
-                  Files.write(targetFile, fileBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                  extractedCount++;
-                  
-                  if (entryName.endsWith(".cls")) {
-                    hasCls = true;
-                    LOG.info("Extracted .cls file: {} ({} bytes)", entryName, fileBytes.length);
-                  } else if (entryName.endsWith(".cls-meta.xml")) {
-                    LOG.info("Extracted .cls-meta.xml file: {} ({} bytes)", entryName, fileBytes.length);
-                  }
                 }
-              } catch (Exception ex) {
-                LOG.error("Error extracting ZIP to storage/apex/new/: {}", ex.getMessage(), ex);
-                throw ex;
-              }
-              
-              LOG.info("✅ Extracted {} files to {}", extractedCount, newDir.toAbsolutePath());
-              if (archivedCount > 0) {
-                LOG.info("📦 Archived {} changed files to {} with timestamp {}", archivedCount, oldDir.toAbsolutePath(), timestamp);
-              }
+                if (resp.statusCode() >= 400) {
+                    // SOAP faults (expired session, unknown id) and 4xx never turn into done=true; stop polling.
+                    // Other 5xx may pass, so the retrieve stays resumable.
+                    String fault = body.isSpilled() ? null : extractTag(body.toString(StandardCharsets.UTF_8), "faultstring");
+                    String message = "checkRetrieveStatus failed: status=" + resp.statusCode() + " fault=" + fault;
+                    if (fault != null || resp.statusCode() < 500) throw new RetrieveFailedException(message);
+                    throw new IOException(message);
+                }
+                payload = body.isSpilled()
+                    ? readSpilledRetrieveStatus(resp.statusCode(), body, orgMetrics)
+                    : readRetrieveStatus(resp.statusCode(), body.toString(StandardCharsets.UTF_8), orgMetrics);
+                if (payload != null) {
+                    orgMetrics.retrievePolled(polls, System.nanoTime() - started, body.size());
+                }
+            }
+            return payload;
+        }
+    }
 
-              if (!hasCls) {
-                String msg = "Metadata retrieve returned no Apex class files. " +
-                    "Likely causes: the sessionId used for the Metadata API does not have Metadata permissions, or the connected app scopes do not include API/metadata access. " +
-                    "Ensure the OAuth token has the required scopes (e.g., 'api' or 'full'), the user has permission to retrieve metadata, and retry using a session with Metadata API access.";
-                LOG.error(msg);
-                throw new IllegalStateException(msg);
-              }
+    /**
+     * Parse a checkRetrieveStatus response held in memory.
+     * Returns null while the retrieve is still running.
+     */
+    private RetrievePayload readRetrieveStatus(int statusCode, String body, PipelineMetrics.Org orgMetrics) {
+        // Log status for debugging
+        try {
+          LOG.info("checkRetrieveStatus response code={} snippet={}", statusCode,
+              body.substring(0, Math.min(400, body.length())).replaceAll("\n", " "));
+        } catch (Exception ignore) {}
+
+        String doneTag = extractTag(body, "done");
+        if (!"true".equalsIgnoreCase(doneTag)) {
+          return null;
+        }
+        String status = extractTag(body, "status");
+        if ("Failed".equalsIgnoreCase(status) || "Canceled".equalsIgnoreCase(status)) {
+          throw new RetrieveFailedException("Retrieve " + status + ": " + extractTag(body, "errorMessage"));
+        }
+
+        String zipBase64 = extractTag(body, "zipFile");
+        if (zipBase64 == null) {
+          // attempt a more lenient extraction if namespaces or whitespace exist
+          java.util.regex.Matcher m = java.util.regex.Pattern.compile("(?s)<zipFile>(.*?)</zipFile>").matcher(body);
+          if (m.find()) zipBase64 = m.group(1);
+        }
+
+        if (zipBase64 == null || zipBase64.isBlank()) {
+          LOG.warn("Metadata retrieve completed but no <zipFile> content found. Response length={}", body.length());
+          return RetrievePayload.empty();
+        }
 
-              Map<String, String> results = new HashMap<>();
-              try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-                ZipEntry entry;
-                while ((entry = zin.getNextEntry()) != null) {
-                  String name = entry.getName();
-                  if (name.endsWith(".cls")) {
-                    String[] parts = name.split("/");
-                    String file = parts[parts.length - 1];
-                    String className = file.replaceAll("\\.cls$", "");
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    zin.transferTo(out);
-                    String content = new String(out.toByteArray(), java.nio.charset.StandardCharsets.UTF_8);
-                    results.put(className, content);
-                  }
+        LOG.info("zipFile base64 length={}", zipBase64.length());
+        long decodeStarted = System.nanoTime();
+        byte[] zipBytes = Base64.getDecoder().decode(zipBase64);
+        decoded(orgMetrics, System.nanoTime() - decodeStarted);
+        return RetrievePayload.ofBytes(zipBytes);
+    }
+
+    /**
+     * Parse a checkRetrieveStatus response that exceeded the memory budget and was spilled to disk.
+     * The base64 zipFile is decoded while streaming into a temp ZIP, never held in memory.
+     */
+    private RetrievePayload readSpilledRetrieveStatus(int statusCode, SpillBuffer body, PipelineMetrics.Org orgMetrics) throws IOException {
+        try (InputStream in = body.openInputStream()) {
+          String snippet = new String(in.readNBytes(400), StandardCharsets.UTF_8);
+          LOG.info("checkRetrieveStatus response code={} length={} (spilled) snippet={}", statusCode, body.size(),
+              snippet.replaceAll("\n", " "));
+        }
+
+        try (InputStream in = body.openInputStream()) {
+          if (!XmlStreamUtil.seekPast(in, "<done>true</done>")) {
+            return null;
+          }
+        }
+
+        Path zip = Files.createTempFile(createSpillDir(), "sf-retrieve-", ".zip");
+        try (InputStream in = body.openInputStream()) {
+          if (!XmlStreamUtil.seekPast(in, "<zipFile>")) {
+            Files.deleteIfExists(zip);
+            LOG.warn("Metadata retrieve completed but no <zipFile> content found. Response length={}", body.size());
+            return RetrievePayload.empty();
+          }
+          long decodeStarted = System.nanoTime();
+          try (InputStream decoded = Base64.getMimeDecoder().wrap(XmlStreamUtil.elementText(in))) {
+            Files.copy(decoded, zip, StandardCopyOption.REPLACE_EXISTING);
+          }
+          decoded(orgMetrics, System.nanoTime() - decodeStarted);
+        } catch (IOException | RuntimeException ex) {
+          Files.deleteIfExists(zip);
+          throw ex;
+        }
+
+        LOG.info("zipFile decoded from spilled response ({} bytes) to {} ({} bytes)", body.size(), zip, Files.size(zip));
+        return RetrievePayload.ofFile(zip);
+    }
+
+    /**
+     * Store a retrieve as org's new snapshot and journal the classes it changed, timed as the
+     * request's unzip phase. The changes are journaled before the org's next retrieve can be
+     * stored, under the generation this one was stored as.
+     */
+    private ExtractionResult save(SalesforceOrg org, RetrievePayload payload) throws Exception {
+        long started = System.nanoTime();
+        try {
+            return org.store().save(payload, result -> {
+                try {
+                    journal.append(org.id(), result.getGeneration(), result.getChanges());
+                } catch (IOException e) {
+                    // The snapshot is published either way; only journal consumers miss these changes
+                    LOG.error("Could not journal {} class changes of org {}: {}", result.getChanges().size(), org.id(), e.getMessage(), e);
                 }
-              }
-              return results;
-            }
+            });
+        } finally {
+            RequestTiming.current().add(RequestTiming.UNZIP, System.nanoTime() - started);
+        }
+    }
 
-            Thread.sleep(1000);
+    private static void pollWait(long millis) throws InterruptedException {
+        long started = System.nanoTime();
+        try {
+            Thread.sleep(millis);
+        } finally {
+            RequestTiming.current().add(RequestTiming.POLL_WAIT, System.nanoTime() - started);
         }
     }
 
+    private static void decoded(PipelineMetrics.Org orgMetrics, long nanos) {
+        orgMetrics.decoded(nanos);
+        RequestTiming.current().add(RequestTiming.DECODE, nanos);
+    }
+
+    private SpillBuffer newSpillBuffer() {
+        return new SpillBuffer(memoryBudgetBytes, spillDir);
+    }
+
+    private Path createSpillDir() throws IOException {
+        Files.createDirectories(spillDir);
+        return spillDir;
+    }
+
     private String extractTag(String xml, String tag) {
         int s = xml.indexOf("<" + tag + ">");
         if (s < 0) return null;
@@ -341,36 +509,8 @@ public class SalesforceApexService {
         return xml.substring(s + tag.length() + 2, e);
     }
 
-    /**
-     * Delete all previous archived versions of a file before saving the new one.
-     * Pattern: ClassName_*.cls
-     */
-    private void deleteOldArchivedVersions(Path directory, String baseName, String extension) {
-        try {
-            if (!Files.exists(directory)) return;
-            
-            String pattern = baseName + "_";
-            try (java.util.stream.Stream<Path> paths = Files.list(directory)) {
-                paths.filter(p -> {
-                    String name = p.getFileName().toString();
-                    return name.startsWith(pattern) && name.endsWith(extension);
-                })
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                        LOG.info("🗑️  Deleted old archived version: {}", p.getFileName());
-                    } catch (Exception e) {
-                        LOG.warn("Failed to delete old archived file {}: {}", p.getFileName(), e.getMessage());
-                    }
-                });
-            }
-        } catch (Exception e) {
-            LOG.error("Error deleting old archived versions: {}", e.getMessage());
-        }
-    }
-
-    public List<Map<String, Object>> getApexClassList(String token, String instanceUrl) throws Exception {
-        String envelope = """
+    private static String listApexClassesEnvelope(String token) {
+        return """
                 <soapenv:Envelope xmlns:soapenv="http://schemas.xmlsoap.org/soap/envelope/"
                                   xmlns:met="http://soap.sforce.com/2006/04/metadata">
                   <soapenv:Header>
@@ -386,29 +526,22 @@ public class SalesforceApexService {
                   </soapenv:Body>
                 </soapenv:Envelope>
                 """.replace("REPLACE", token);
-        String raw = listMetadataRaw(token, instanceUrl, envelope);
+    }
 
-        if (raw == null) return Collections.emptyList();
+    public List<Map<String, Object>> getApexClassList(String token, String instanceUrl) throws Exception {
+        List<ApexFileProperties> listing = listApexClasses(token, instanceUrl);
 
-        List<Map<String, Object>> out = new ArrayList<>();
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile("(?s)<fileProperties>(.*?)</fileProperties>");
-        java.util.regex.Matcher m = p.matcher(raw);
+        List<Map<String, Object>> out = new ArrayList<>(listing.size());
         int excludedManaged = 0;
-        while (m.find()) {
-          String block = m.group(1);
-          String fullName = extractTag(block, "fullName");
-          if (fullName == null) fullName = extractTag(block, "fileName");
-          String namespace = extractTag(block, "namespacePrefix");
-          String manageable = extractTag(block, "manageableState");
-
+        for (ApexFileProperties entry : listing) {
           // Exclude classes that belong to an installed managed package (namespace present
           // or manageableState=installed) because their source is not retrievable.
-          boolean isManaged = (namespace != null && !namespace.isBlank()) || (manageable != null && "installed".equalsIgnoreCase(manageable));
-          if (isManaged) {
+          if (entry.isManaged()) {
             excludedManaged++;
             continue;
           }
 
+          String fullName = entry.getFullName() != null ? entry.getFullName() : entry.getFileName();
           if (fullName != null) {
             Map<String, Object> map = new HashMap<>();
             map.put("Id", fullName);
@@ -424,6 +557,77 @@ public class SalesforceApexService {
         return out;
     }
 
+    /**
+     * Every ApexClass entry of listMetadata, managed ones included. The listing is cached per
+     * org for the configured TTL and dropped whenever a retrieve for the org is stored.
+     */
+    public List<ApexFileProperties> listApexClasses(String token, String instanceUrl) throws Exception {
+        String org = RetrieveCoordinator.orgKey(instanceUrl);
+        CachedListing cached = classListings.get(org);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt <= classListTtlMillis) {
+            return cached.entries;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+          .uri(URI.create(instanceUrl + METADATA_URL_SUFFIX))
+          .header("Content-Type", "text/xml")
+          .header("SOAPAction", "listMetadata")
+          .POST(HttpRequest.BodyPublishers.ofString(listApexClassesEnvelope(token)))
+          .build();
+
+        long loadedAt = System.currentTimeMillis();
+        HttpResponse<InputStream> response = requests.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+          if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            LOG.warn("listMetadata failed: status={} body={}", response.statusCode(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            return Collections.emptyList();
+          }
+          List<ApexFileProperties> entries = List.copyOf(ListMetadataParser.parse(in));
+          if (classListTtlMillis > 0) {
+            classListings.put(org, new CachedListing(entries, loadedAt));
+          }
+          return entries;
+        }
+    }
+
+    /**
+     * A hash of the org's class listing as it is now: the name, id and last-modified date of
+     * every class. Adding, editing or deleting a class changes it, so it tells whether a full
+     * retrieve would bring anything new for the price of one listMetadata call. Null when the
+     * listing comes back empty, which is also how a failed listing looks.
+     */
+    public String classListingFingerprint(String token, String instanceUrl) throws Exception {
+        invalidateClassList(instanceUrl);
+        List<ApexFileProperties> listing = listApexClasses(token, instanceUrl);
+        if (listing.isEmpty()) return null;
+        List<String> entries = new ArrayList<>(listing.size());
+        for (ApexFileProperties entry : listing) {
+            entries.add(entry.getFullName() + '|' + entry.getId() + '|' + entry.getLastModifiedDate());
+        }
+        Collections.sort(entries);
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (String entry : entries) {
+            md.update(entry.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /** Drop the cached class listing of an org so the next listing goes to Salesforce. */
+    public void invalidateClassList(String instanceUrl) {
+        classListings.remove(RetrieveCoordinator.orgKey(instanceUrl));
+    }
+
+    private static final class CachedListing {
+        final List<ApexFileProperties> entries;
+        final long loadedAt;
+
+        CachedListing(List<ApexFileProperties> entries, long loadedAt) {
+            this.entries = entries;
+            this.loadedAt = loadedAt;
+        }
+    }
+
     public String listMetadataRaw(String token, String instanceUrl, String envelope) throws Exception {
         HttpRequest request = HttpRequest.newBuilder()
           .uri(URI.create(instanceUrl + METADATA_URL_SUFFIX))
@@ -432,7 +636,7 @@ public class SalesforceApexService {
           .POST(HttpRequest.BodyPublishers.ofString(envelope))
           .build();
 
-        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = requests.send(request, HttpResponse.BodyHandlers.ofString());
         if (response.statusCode() < 200 || response.statusCode() >= 300) {
             LOG.warn("listMetadata failed: status={} body={}", response.statusCode(), response.body());
             return response.body();
@@ -451,7 +655,7 @@ public class SalesforceApexService {
               .GET()
               .build();
 
-          HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+          HttpResponse<String> resp = requests.send(req, HttpResponse.BodyHandlers.ofString());
           out.put("ok", resp.statusCode() >= 200 && resp.statusCode() < 300);
           out.put("status", resp.statusCode());
           String body = resp.body();
@@ -472,7 +676,39 @@ public class SalesforceApexService {
         return out;
       }
 
+    /**
+     * Source of one class as {"Name","Body"} JSON. Lookups are served from the class cache or
+     * queued and fetched together with the other classes requested within the batch window, in
+     * a single retrieve that does not touch the stored snapshots. A name that cannot be an Apex
+     * class is answered as not found without joining a batch, as it would go into the SOAP
+     * envelope of the other lookups.
+     */
     public String getApexClassById(String className, String token, String instanceUrl) throws Exception {
+      if (className == null || !APEX_CLASS_NAME.matcher(className).matches()) {
+        LOG.warn("Not an Apex class name, skipping lookup: {}", className);
+        return "{}";
+      }
+      String body = classBatcher.get(className, token, instanceUrl);
+
+      if (body == null || body.isBlank()) {
+        return "{}";
+      }
+
+      Map<String, String> jsonResult = new HashMap<>();
+      jsonResult.put("Name", className);
+      jsonResult.put("Body", body);
+      return mapper.writeValueAsString(jsonResult);
+    }
+
+    /**
+     * Retrieve the given classes in one request and return name → source for those found. The
+     * names are written into the envelope as they are, so callers pass only checked class names.
+     */
+    Map<String, String> retrieveClasses(Collection<String> classNames, String token, String instanceUrl) throws Exception {
+      StringBuilder members = new StringBuilder();
+      for (String name : classNames) {
+        members.append("<met:members>").append(name).append("</met:members>");
+      }
       String envelope = """
               <soapenv:Envelope xmlns:soapenv="http://schemas.xmlsoap.org/soap/envelope/"
                                 xmlns:met="http://soap.sforce.com/2006/04/metadata">
@@ -488,7 +724,7 @@ public class SalesforceApexService {
                       <met:singlePackage>false</met:singlePackage>
                       <met:unpackaged>
                         <met:types>
-                          <met:members>%s</met:members>
+                          %s
                           <met:name>ApexClass</met:name>
                         </met:types>
                         <met:version>57.0</met:version>
@@ -497,7 +733,7 @@ public class SalesforceApexService {
                   </met:retrieve>
                 </soapenv:Body>
               </soapenv:Envelope>
-              """.formatted(token, className);
+              """.formatted(token, members);
 
       HttpRequest request = HttpRequest.newBuilder()
         .uri(URI.create(instanceUrl + METADATA_URL_SUFFIX))
@@ -506,24 +742,19 @@ public class SalesforceApexService {
         .POST(HttpRequest.BodyPublishers.ofString(envelope))
         .build();
 
-      HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+      long submitted = System.nanoTime();
+      HttpResponse<String> response = requests.send(request, HttpResponse.BodyHandlers.ofString());
+      metrics.forOrg(instanceUrl).retrieveSubmitted(true, System.nanoTime() - submitted);
       String asyncId = extractTag(response.body(), "id");
-      
+
       if (asyncId == null || asyncId.isBlank()) {
-        return "{}";
+        LOG.warn("Class retrieve for {} classes was not accepted: status={}", classNames.size(), response.statusCode());
+        return Collections.emptyMap();
       }
 
-      Map<String, String> result = waitForRetrieveAndDownload(asyncId, token, instanceUrl);
-      String body = result.get(className);
-      
-      if (body == null || body.isBlank()) {
-        return "{}";
+      try (RetrievePayload payload = waitForRetrievePayload(asyncId, token, instanceUrl)) {
+        return payload.readClassSources();
       }
-
-      Map<String, String> jsonResult = new HashMap<>();
-      jsonResult.put("Name", className);
-      jsonResult.put("Body", body);
-      return mapper.writeValueAsString(jsonResult);
     }
 
     public String sendRetrieveRequestAndGetId(String token, String instanceUrl) throws Exception {
@@ -559,7 +790,9 @@ public class SalesforceApexService {
                 .POST(HttpRequest.BodyPublishers.ofString(envelope))
                 .build();
 
-        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        long submitted = System.nanoTime();
+        HttpResponse<String> response = requests.send(request, HttpResponse.BodyHandlers.ofString());
+        metrics.forOrg(instanceUrl).retrieveSubmitted(true, System.nanoTime() - submitted);
         
         // Extract retrieve ID from response
         String retrieveId = extractTag(response.body(), "id");
@@ -28,15 +28,23 @@ public class SalesforceAuthService {
     @Value("${salesforce.tokenUrl}")
     private String tokenUrl;
 
-    private final WebClient webClient = WebClient.builder()
-            .filter(ExchangeFilterFunction.ofRequestProcessor(clientRequest -> {
-                try {
-                    System.out.println("--> Salesforce Request: " + clientRequest.method() + " " + clientRequest.url());
-                } catch (Exception ignored) {
-                }
-                return Mono.just(clientRequest);
-            }))
-            .build();
+    private final WebClient webClient;
+    private final OrgRegistry orgs;
+
+    public SalesforceAuthService(SalesforceRequestScheduler scheduler, OrgRegistry orgs) {
+        this.orgs = orgs;
+        this.webClient = WebClient.builder()
+                .filter(ExchangeFilterFunction.ofRequestProcessor(clientRequest -> {
+                    try {
+                        System.out.println("--> Salesforce Request: " + clientRequest.method() + " " + clientRequest.url());
+                    } catch (Exception ignored) {
+                    }
+                    return Mono.just(clientRequest);
+                }))
+                // Token and userinfo calls count against the same per-org limits as the API calls
+                .filter(scheduler.filter())
+                .build();
+    }
 
     // Exchange authorization code for token and store into session
     public Mono<String> exchangeCodeForToken(String code, HttpSession session) {
@@ -87,6 +95,8 @@ public class SalesforceAuthService {
                             if (accessToken != null && instanceUrl != null) {
                                 session.setAttribute("sf_access_token", accessToken);
                                 session.setAttribute("sf_instance_url", instanceUrl);
+                                // A configured org keeps the tokens, so it can be synced without this session
+                                orgs.connected(instanceUrl, accessToken, (String) resp.get("refresh_token"));
 
                                 // =====================================================
                                 // 🔐 CHECK AND LOG OAUTH TOKEN SCOPE
@@ -0,0 +1,115 @@
+package com.example.sf.service;
+
+import java.nio.file.Path;
+
+/**
+ * One Salesforce org the connector keeps snapshots of: its id, instance URL, storage root with
+ * its own {@link ApexSnapshotStore}, and the credentials used to reach it without a browser
+ * session. Created by {@link OrgRegistry}.
+ *
+ * The default org has no instance URL of its own: it stands for whatever org a session is
+ * connected to that is not configured, and keeps the legacy storage root.
+ */
+public final class SalesforceOrg {
+
+    private final String id;
+    private final String instanceUrl;
+    private final String tokenUrl;
+    private final String clientId;
+    private final String clientSecret;
+    private final Path storageRoot;
+    private final ApexSnapshotStore store;
+    private volatile String refreshToken;
+    private volatile String accessToken;
+    private volatile long accessTokenAt;
+
+    SalesforceOrg(String id, String instanceUrl, String tokenUrl, String clientId, String clientSecret,
+                  String refreshToken, Path storageRoot, ApexSnapshotStore store) {
+        this.id = id;
+        this.instanceUrl = instanceUrl;
+        this.tokenUrl = tokenUrl;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.refreshToken = refreshToken;
+        this.storageRoot = storageRoot;
+        this.store = store;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /** Instance URL of a configured org; null for the default org. */
+    public String instanceUrl() {
+        return instanceUrl;
+    }
+
+    public boolean isDefault() {
+        return OrgRegistry.DEFAULT_ORG.equals(id);
+    }
+
+    public Path storageRoot() {
+        return storageRoot;
+    }
+
+    public ApexSnapshotStore store() {
+        return store;
+    }
+
+    /** Whether the org can be reached without a session, through a refresh token. */
+    public boolean hasCredentials() {
+        return refreshToken != null && !refreshToken.isBlank();
+    }
+
+    String tokenUrl() {
+        return tokenUrl;
+    }
+
+    String clientId() {
+        return clientId;
+    }
+
+    String clientSecret() {
+        return clientSecret;
+    }
+
+    String refreshToken() {
+        return refreshToken;
+    }
+
+    /** The cached access token if it was obtained less than ttlMillis ago, else null. */
+    String accessToken(long ttlMillis) {
+        String token = accessToken;
+        return token != null && System.currentTimeMillis() - accessTokenAt <= ttlMillis ? token : null;
+    }
+
+    void accessToken(String token) {
+        this.accessTokenAt = System.currentTimeMillis();
+        this.accessToken = token;
+    }
+
+    /** Credentials handed over by an OAuth login to this org; a null refresh token keeps the known one. */
+    void connected(String accessToken, String refreshToken) {
+        if (refreshToken != null && !refreshToken.isBlank()) this.refreshToken = refreshToken;
+        accessToken(accessToken);
+    }
+
+    /** An access token together with the instance it is valid for. */
+    public static final class Connection {
+        private final String token;
+        private final String instanceUrl;
+
+        Connection(String token, String instanceUrl) {
+            this.token = token;
+            this.instanceUrl = instanceUrl;
+        }
+
+        public String token() {
+            return token;
+        }
+
+        public String instanceUrl() {
+            return instanceUrl;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.sf.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Every call to Salesforce goes through here.
+ *
+ * Calls are admitted per org (the scheme and host of the request URL): at most
+ * {@code max-concurrent-per-org} run at once, they are spaced to {@code requests-per-second},
+ * and interactive calls are admitted ahead of waiting background calls. A call counts as running
+ * until its response body has been read: for streamed bodies ({@code InputStream}) that is when
+ * the caller closes the stream, since the download is most of the work. The remaining daily API
+ * allocation is tracked from the {@code Sforce-Limit-Info} response header; once it drops below
+ * the reserve, background calls are refused so that what is left goes to users.
+ *
+ * The priority of a call comes from the calling thread: interactive unless the work runs inside
+ * {@link #inBackground(Callable)}.
+ */
+@Service
+public class SalesforceRequestScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SalesforceRequestScheduler.class);
+
+    private static final Pattern API_USAGE = Pattern.compile("api-usage=(\\d+)/(\\d+)");
+    private static final ThreadLocal<Boolean> BACKGROUND = ThreadLocal.withInitial(() -> false);
+
+    /** Where WebClient calls wait for admission. */
+    private static final Executor ADMISSION = task -> Schedulers.boundedElastic().schedule(task);
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final int maxConcurrentPerOrg;
+    private final double requestsPerSecond;
+    private final int backgroundReservePercent;
+    private final Map<String, OrgLimiter> orgs = new ConcurrentHashMap<>();
+
+    public SalesforceRequestScheduler(@Value("${salesforce.api.max-concurrent-per-org:4}") int maxConcurrentPerOrg,
+                                      @Value("${salesforce.api.requests-per-second:10}") double requestsPerSecond,
+                                      @Value("${salesforce.api.background-reserve-percent:10}") int backgroundReservePercent) {
+        this.maxConcurrentPerOrg = Math.max(1, maxConcurrentPerOrg);
+        this.requestsPerSecond = requestsPerSecond;
+        this.backgroundReservePercent = Math.max(0, Math.min(100, backgroundReservePercent));
+    }
+
+    /** Run work with every Salesforce call it makes scheduled as background traffic. */
+    public <T> T inBackground(Callable<T> work) throws Exception {
+        boolean outer = BACKGROUND.get();
+        BACKGROUND.set(true);
+        try {
+            return work.call();
+        } finally {
+            BACKGROUND.set(outer);
+        }
+    }
+
+    /**
+     * Send request once its org admits it, and record the API usage reported in the response.
+     * An InputStream body keeps the call admitted until it is closed, so callers must close it.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        OrgLimiter org = limiter(request.uri());
+        RequestTiming timing = RequestTiming.current();
+        long queued = System.nanoTime();
+        Permit permit = new Permit(org);
+        org.acquire(BACKGROUND.get());
+        permit.admitted();
+        long admitted = System.nanoTime();
+        timing.add(RequestTiming.SF_QUEUE, admitted - queued);
+        boolean returned = false;
+        try {
+            HttpResponse<T> response = http.send(request,
+                info -> HttpResponse.BodySubscribers.mapping(handler.apply(info), permit::holdUntilClosed));
+            timing.add(RequestTiming.SF_HTTP, System.nanoTime() - admitted);
+            response.headers().firstValue("Sforce-Limit-Info").ifPresent(org::recordUsage);
+            returned = true;
+            return response;
+        } finally {
+            // A body stream nobody received is never closed, so its permit goes back here too
+            if (!returned || !permit.heldByBody) permit.release();
+        }
+    }
+
+    /**
+     * The admission of one call; released once, by whoever is done with the call last: the
+     * sender, the reader of the body, or a subscriber that cancelled while the call was queued.
+     */
+    private static final class Permit {
+        private final OrgLimiter org;
+        // Guarded by this
+        private boolean admitted;
+        private boolean released;
+        private volatile boolean heldByBody;
+
+        Permit(OrgLimiter org) {
+            this.org = org;
+        }
+
+        /** The org admitted the call. If it was given up while queued, the admission goes straight back. */
+        synchronized Permit admitted() {
+            if (released) {
+                org.release();
+            } else {
+                admitted = true;
+            }
+            return this;
+        }
+
+        /** A stream body that releases the permit when closed; other bodies are complete already. */
+        @SuppressWarnings("unchecked")
+        <B> B holdUntilClosed(B body) {
+            if (!(body instanceof InputStream in)) return body;
+            heldByBody = true;
+            return (B) new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+
+        /** A response whose permit is released once its body has been read, failed or cancelled. */
+        ClientResponse holdUntilConsumed(ClientResponse response) {
+            heldByBody = true;
+            return response.mutate().body(body -> body.doOnTerminate(this::release).doOnCancel(this::release)).build();
+        }
+
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            if (admitted) org.release();
+        }
+    }
+
+    /**
+     * Filter for WebClient-based callers: admission happens on a bounded-elastic thread, and like
+     * in {@link #send} the call counts as running until its response body has been consumed (as
+     * WebClient requires of every response). A subscriber that cancels or fails before the
+     * response arrives, even while still queued for admission, gives the permit back.
+     */
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> {
+            OrgLimiter org = limiter(request.url());
+            boolean background = BACKGROUND.get();
+            // A permit per subscription, so a retried exchange is admitted again
+            return Mono.defer(() -> {
+                Permit permit = new Permit(org);
+                // A future, not a callable on a scheduler: cancelling it leaves the wait alone, and a
+                // call admitted after it was given up hands its permit straight back
+                return Mono.fromFuture(() -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            org.acquire(background);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new CompletionException(e);
+                        }
+                        return permit.admitted();
+                    }, ADMISSION))
+                    .flatMap(admitted -> next.exchange(request))
+                    .map(response -> {
+                        response.headers().header("Sforce-Limit-Info").forEach(org::recordUsage);
+                        return permit.holdUntilConsumed(response);
+                    })
+                    .doOnError(e -> permit.release())
+                    .doOnCancel(() -> {
+                        // Once the response is out its body holds the permit
+                        if (!permit.heldByBody) permit.release();
+                    });
+            });
+        };
+    }
+
+    /** Current usage and admission state per org. */
+    public Map<String, Object> usage() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        orgs.forEach((key, org) -> out.put(key, org.snapshot()));
+        return out;
+    }
+
+    private OrgLimiter limiter(URI uri) {
+        String key = RetrieveCoordinator.orgKey(uri.getScheme() + "://" + uri.getAuthority());
+        return orgs.computeIfAbsent(key, OrgLimiter::new);
+    }
+
+    /** Admission state of one org. */
+    private final class OrgLimiter {
+        private final String org;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private int running;
+        private int waitingInteractive;
+        private int waitingBackground;
+        private long nextSlotNanos = System.nanoTime();
+        private long apiUsed = -1;
+        private long apiMax = -1;
+        private long usageUpdatedAt;
+        private long admitted;
+        private long refused;
+
+        OrgLimiter(String org) {
+            this.org = org;
+        }
+
+        void acquire(boolean background) throws InterruptedException {
+            long delayNanos;
+            lock.lock();
+            try {
+                if (background) waitingBackground++; else waitingInteractive++;
+                try {
+                    // Background calls also yield to interactive calls that are already waiting
+                    while (running >= maxConcurrentPerOrg || (background && waitingInteractive > 0)) {
+                        changed.await();
+                    }
+                } finally {
+                    if (background) waitingBackground--; else waitingInteractive--;
+                }
+                // Checked after waiting: the responses of the calls ahead may have used up the budget
+                if (background && belowReserve()) {
+                    refused++;
+                    throw new IllegalStateException("Salesforce API allocation of " + org + " is below the "
+                        + backgroundReservePercent + "% reserve (" + apiUsed + "/" + apiMax + " used); background call refused");
+                }
+                running++;
+                admitted++;
+
+                long now = System.nanoTime();
+                long slot = Math.max(nextSlotNanos, now);
+                if (requestsPerSecond > 0) {
+                    nextSlotNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+                }
+                delayNanos = slot - now;
+            } finally {
+                lock.unlock();
+            }
+            if (delayNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                } catch (InterruptedException e) {
+                    release();
+                    throw e;
+                }
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                running--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Parse "api-usage=used/max" from a Sforce-Limit-Info header. */
+        void recordUsage(String header) {
+            Matcher m = API_USAGE.matcher(header);
+            if (!m.find()) return;
+            long used = Long.parseLong(m.group(1));
+            long max = Long.parseLong(m.group(2));
+            boolean paused;
+            lock.lock();
+            try {
+                apiUsed = used;
+                apiMax = max;
+                usageUpdatedAt = System.currentTimeMillis();
+                paused = belowReserve();
+            } finally {
+                lock.unlock();
+            }
+            if (paused) {
+                LOG.warn("⚠️  Salesforce API usage for {} at {}/{}, background calls are paused", org, used, max);
+            }
+        }
+
+        private boolean belowReserve() {
+            return apiMax > 0 && (apiMax - apiUsed) * 100 < apiMax * backgroundReservePercent;
+        }
+
+        Map<String, Object> snapshot() {
+            lock.lock();
+            try {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("apiUsed", apiUsed < 0 ? null : apiUsed);
+                m.put("apiMax", apiMax < 0 ? null : apiMax);
+                m.put("apiRemaining", apiMax < 0 ? null : apiMax - apiUsed);
+                m.put("usageUpdatedAt", usageUpdatedAt == 0 ? null : usageUpdatedAt);
+                m.put("backgroundPaused", belowReserve());
+                m.put("running", running);
+                m.put("waitingInteractive", waitingInteractive);
+                m.put("waitingBackground", waitingBackground);
+                m.put("admitted", admitted);
+                m.put("refusedBackground", refused);
+                return m;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
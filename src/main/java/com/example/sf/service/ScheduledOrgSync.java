@@ -0,0 +1,99 @@
+package com.example.sf.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the snapshots of the configured orgs fresh without anyone asking: every org is synced
+ * with {@link OrgSyncService#syncIfChanged} on an interval, so a sync whose class listing shows
+ * nothing new costs one listMetadata call.
+ *
+ * Each org has a single chain of runs; the next one is only scheduled once the previous one
+ * finished, interval after it started (right away if it took longer), plus a random jitter
+ * that keeps orgs from syncing in lockstep. A run never overlaps the previous one of its org,
+ * and a run that overran or failed is followed by one run, not by the ones it missed. Orgs
+ * without credentials are skipped until a login to them provides some.
+ */
+@Component
+public class ScheduledOrgSync {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScheduledOrgSync.class);
+
+    private final OrgRegistry orgs;
+    private final OrgSyncService orgSync;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final long jitterMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "apex-org-sync-schedule");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ScheduledOrgSync(OrgRegistry orgs, OrgSyncService orgSync,
+                            @Value("${salesforce.orgs.sync.schedule.enabled:false}") boolean enabled,
+                            @Value("${salesforce.orgs.sync.schedule.interval-ms:900000}") long intervalMillis,
+                            @Value("${salesforce.orgs.sync.schedule.jitter-ms:60000}") long jitterMillis) {
+        this.orgs = orgs;
+        this.orgSync = orgSync;
+        this.enabled = enabled;
+        this.intervalMillis = Math.max(1000, intervalMillis);
+        this.jitterMillis = Math.max(0, jitterMillis);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        int scheduled = 0;
+        for (SalesforceOrg org : orgs.all()) {
+            if (org.isDefault()) continue;
+            schedule(org, jitter());
+            scheduled++;
+        }
+        LOG.info("⏰ Syncing {} org(s) every {} ms (+ up to {} ms jitter)", scheduled, intervalMillis, jitterMillis);
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private void schedule(SalesforceOrg org, long delayMillis) {
+        try {
+            timer.schedule(() -> run(org), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void run(SalesforceOrg org) {
+        long started = System.currentTimeMillis();
+        if (!org.hasCredentials()) {
+            LOG.debug("Scheduled sync of org {} skipped: no credentials", org.id());
+            scheduleNext(org, started);
+            return;
+        }
+        // Failures are recorded and logged by the sync itself; the chain goes on either way
+        orgSync.syncIfChanged(org).whenComplete((outcome, error) -> scheduleNext(org, started));
+    }
+
+    private void scheduleNext(SalesforceOrg org, long startedAt) {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        schedule(org, Math.max(0, intervalMillis - elapsed) + jitter());
+    }
+
+    private long jitter() {
+        return jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.sf.service;
+
+import com.example.sf.model.ExtractionResult;
+import com.example.sf.util.LazySourceMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a retrieved metadata ZIP into a staging snapshot, comparing every entry with the
+ * published snapshot and archiving the previous version of changed files into a staging old/.
+ * Published snapshots are never written, so readers need no coordination with a run.
+ *
+ * The calling thread only inflates entries; each inflated entry is handed through a bounded
+ * queue to a pool of writer threads that compare against the existing file, archive it when
+ * the content changed and write the new bytes. The run ends once every writer has drained the
+ * queue, and the totals are reported in an {@link ExtractionResult}.
+ *
+ * Payloads spilled to disk are extracted from a {@link ZipFile} instead: only entry headers go
+ * through the queue and each writer streams its entry straight into the target file with a
+ * channel transfer, so heap use does not grow with the package size.
+ *
+ * The result lists the classes the retrieve added or modified and the baseline classes it no
+ * longer has.
+ */
+@Component
+public class ZipExtractionPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZipExtractionPipeline.class);
+
+    /** Marks the end of the entry stream; each writer consumes exactly one. */
+    private static final EntryTask END = new EntryTask(null, null, null, null);
+
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private final int writerThreads;
+    private final int queueCapacity;
+    private final PipelineMetrics metrics;
+
+    public ZipExtractionPipeline(@Value("${storage.apex.extract.writers:4}") int writerThreads,
+                                 @Value("${storage.apex.extract.queue-capacity:64}") int queueCapacity,
+                                 PipelineMetrics metrics) {
+        this.writerThreads = Math.max(1, writerThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Extract every file entry of the ZIP stream under newDir, preserving folder structure.
+     * Entries are compared against baselineDir (the published snapshot, never modified); files
+     * whose content differs from the baseline copy have that copy archived to the same relative
+     * folder under oldDir as {@code BaseName_TIMESTAMP.ext}, replacing any earlier archived
+     * version of that file.
+     */
+    public ExtractionResult extract(InputStream zipStream, Path baselineDir, Path newDir, Path oldDir) throws Exception {
+        return run(baselineDir, newDir, oldDir, (run, queue) -> {
+            try (ZipInputStream zin = new ZipInputStream(zipStream)) {
+                ZipEntry entry;
+                while ((entry = zin.getNextEntry()) != null && run.failure.get() == null) {
+                    if (entry.isDirectory()) {
+                        run.ensureDirectory(newDir.resolve(entry.getName()));
+                        continue;
+                    }
+                    queue.put(new EntryTask(entry.getName(), zin.readAllBytes(), null, null));
+                }
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #extract(InputStream, Path, Path, Path)} for a ZIP opened from disk. Entries
+     * are located through the central directory and inflated by the writers themselves. The
+     * returned class map reads each source from newDir on access instead of holding it in memory.
+     */
+    public ExtractionResult extract(ZipFile zip, Path baselineDir, Path newDir, Path oldDir) throws Exception {
+        return run(baselineDir, newDir, oldDir, (run, queue) -> {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements() && run.failure.get() == null) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    run.ensureDirectory(newDir.resolve(entry.getName()));
+                    continue;
+                }
+                queue.put(new EntryTask(entry.getName(), null, zip, entry));
+            }
+        });
+    }
+
+    private ExtractionResult run(Path baselineDir, Path newDir, Path oldDir, Producer producer) throws Exception {
+        long started = System.nanoTime();
+        Run run = new Run(baselineDir, newDir, oldDir, String.valueOf(System.currentTimeMillis()), metrics.current());
+        run.ensureDirectory(newDir);
+        run.ensureDirectory(oldDir);
+
+        BlockingQueue<EntryTask> queue = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads, new WriterThreadFactory());
+        CountDownLatch finished = new CountDownLatch(writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
+            writers.execute(() -> {
+                try {
+                    EntryTask task;
+                    while ((task = queue.take()) != END) {
+                        if (run.failure.get() != null) continue; // drain without writing after a failure
+                        try {
+                            run.write(task);
+                        } catch (Exception ex) {
+                            run.failure.compareAndSet(null, ex);
+                        }
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        try {
+            producer.produce(run, queue);
+        } catch (Exception ex) {
+            run.failure.compareAndSet(null, ex);
+        } finally {
+            for (int i = 0; i < writerThreads; i++) {
+                queue.put(END);
+            }
+            finished.await();
+            writers.shutdown();
+        }
+
+        Exception failure = run.failure.get();
+        if (failure != null) {
+            LOG.error("Error extracting ZIP to {}: {}", newDir, failure.getMessage(), failure);
+            throw failure;
+        }
+
+        run.collectDeletions();
+        long durationNanos = System.nanoTime() - started;
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        run.metrics.extracted(run.extracted.get(), run.bytes.sum(), durationNanos);
+        Map<String, String> classes = run.classFiles.isEmpty() ? run.classes : new LazySourceMap(run.classFiles.keySet(), name -> readSource(run.classFiles.get(name)));
+        ExtractionResult result = new ExtractionResult(classes, run.extracted.get(), run.archived.get(),
+            run.bytes.sum(), durationMillis, run.timestamp, run.changes.changes());
+
+        LOG.info("✅ Extracted {} files ({} bytes) to {} in {} ms using {} writers",
+            result.getExtractedCount(), result.getBytesWritten(), newDir.toAbsolutePath(), durationMillis, writerThreads);
+        if (result.getArchivedCount() > 0) {
+            LOG.info("📦 Archived {} changed files to {} with timestamp {}",
+                result.getArchivedCount(), oldDir.toAbsolutePath(), run.timestamp);
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Producer {
+        void produce(Run run, BlockingQueue<EntryTask> queue) throws Exception;
+    }
+
+    /** Either inflated bytes, or a ZipFile entry the writer streams itself. */
+    private static final class EntryTask {
+        final String name;
+        final byte[] bytes;
+        final ZipFile zip;
+        final ZipEntry entry;
+
+        EntryTask(String name, byte[] bytes, ZipFile zip, ZipEntry entry) {
+            this.name = name;
+            this.bytes = bytes;
+            this.zip = zip;
+            this.entry = entry;
+        }
+    }
+
+    /** State shared by the inflater and the writers of a single extraction. */
+    private static final class Run {
+        final Path baselineDir;
+        final Path newDir;
+        final Path oldDir;
+        final String timestamp;
+        final Set<Path> createdDirs = ConcurrentHashMap.newKeySet();
+        final Map<String, String> classes = new ConcurrentHashMap<>();
+        final Map<String, Path> classFiles = new ConcurrentHashMap<>();
+        final AtomicInteger extracted = new AtomicInteger();
+        final AtomicInteger archived = new AtomicInteger();
+        final LongAdder bytes = new LongAdder();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final ClassChangeCollector changes = new ClassChangeCollector();
+        // Captured on the calling thread; the writers report into them
+        final OperationProgress progress = OperationProgress.current();
+        final PipelineMetrics.Org metrics;
+
+        Run(Path baselineDir, Path newDir, Path oldDir, String timestamp, PipelineMetrics.Org metrics) {
+            this.baselineDir = baselineDir;
+            this.newDir = newDir;
+            this.oldDir = oldDir;
+            this.timestamp = timestamp;
+            this.metrics = metrics;
+        }
+
+        void ensureDirectory(Path dir) throws IOException {
+            // Recorded only once it exists, so a writer racing the creating one never skips ahead of it
+            if (dir != null && !createdDirs.contains(dir)) {
+                Files.createDirectories(dir);
+                createdDirs.add(dir);
+            }
+        }
+
+        void write(EntryTask task) throws IOException {
+            PipelineEvents.ExtractEntry event = new PipelineEvents.ExtractEntry();
+            event.begin();
+            Path targetFile = newDir.resolve(task.name);
+            Path baselineFile = baselineDir.resolve(task.name);
+            ensureDirectory(targetFile.getParent());
+
+            String className = ClassChangeCollector.classNameOf(task.name);
+            byte[] previousSource = null;
+            long written;
+            boolean existed = Files.exists(baselineFile);
+            boolean changed = false;
+            // Content-based archival: keep the previous version only when it actually changed
+            if (existed && !sameContent(baselineFile, task)) {
+                if (className != null) previousSource = Files.readAllBytes(baselineFile);
+                archive(task.name, baselineFile);
+                changed = true;
+            }
+
+            long writeStarted = System.nanoTime();
+            if (task.bytes != null) {
+                Files.write(targetFile, task.bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                written = task.bytes.length;
+            } else {
+                written = transfer(task, targetFile);
+            }
+            metrics.fileWritten(System.nanoTime() - writeStarted);
+
+            if (className != null && (changed || !existed)) {
+                byte[] source = task.bytes != null ? task.bytes : Files.readAllBytes(targetFile);
+                if (changed) changes.modified(className, source, previousSource);
+                else changes.added(className, source, () -> Files.readAllBytes(targetFile));
+            }
+            extracted.incrementAndGet();
+            bytes.add(written);
+            progress.extracted(written);
+            event.finish(task.name, written, changed, task.bytes == null);
+
+            if (className != null) {
+                if (task.bytes != null) {
+                    classes.put(className, new String(task.bytes, StandardCharsets.UTF_8));
+                } else {
+                    classFiles.put(className, targetFile);
+                }
+            }
+        }
+
+        /** Classes of the baseline that the retrieve no longer has. */
+        void collectDeletions() throws IOException {
+            if (!Files.exists(baselineDir)) return;
+            try (java.util.stream.Stream<Path> paths = Files.walk(baselineDir)) {
+                for (Path file : (Iterable<Path>) paths::iterator) {
+                    String className = ClassChangeCollector.classNameOf(file.getFileName().toString());
+                    if (className == null || classes.containsKey(className) || classFiles.containsKey(className)) continue;
+                    changes.deleted(className, Files.readAllBytes(file), () -> Files.readAllBytes(file));
+                }
+            }
+        }
+
+        /**
+         * In-memory entries are compared byte for byte. Streamed entries are compared by size and
+         * the CRC-32 recorded in the central directory, so the entry is not inflated twice.
+         */
+        private static boolean sameContent(Path existingFile, EntryTask task) throws IOException {
+            if (task.bytes != null) {
+                return Arrays.equals(Files.readAllBytes(existingFile), task.bytes);
+            }
+            if (Files.size(existingFile) != task.entry.getSize() || task.entry.getCrc() < 0) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            try (InputStream in = Files.newInputStream(existingFile)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) crc.update(buf, 0, n);
+            }
+            return crc.getValue() == task.entry.getCrc();
+        }
+
+        private static long transfer(EntryTask task, Path targetFile) throws IOException {
+            try (ReadableByteChannel src = Channels.newChannel(task.zip.getInputStream(task.entry));
+                 FileChannel dst = FileChannel.open(targetFile,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                long n;
+                while ((n = dst.transferFrom(src, position, TRANSFER_CHUNK)) > 0) {
+                    position += n;
+                }
+                return position;
+            }
+        }
+
+        private void archive(String entryName, Path baselineFile) throws IOException {
+            PipelineEvents.ArchiveFile event = new PipelineEvents.ArchiveFile();
+            event.begin();
+            String fileName = baselineFile.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            String baseName = dot >= 0 ? fileName.substring(0, dot) : fileName;
+            String extension = dot >= 0 ? fileName.substring(dot) : "";
+
+            // Preserve folder structure in old/
+            Path oldSubDir = oldDir.resolve(baselineDir.relativize(baselineFile.getParent()).toString());
+            ensureDirectory(oldSubDir);
+
+            deleteOldArchivedVersions(oldSubDir, baseName, extension);
+
+            Path archivedFile = oldSubDir.resolve(baseName + "_" + timestamp + extension);
+            long copyStarted = System.nanoTime();
+            Files.copy(baselineFile, archivedFile, StandardCopyOption.REPLACE_EXISTING);
+            metrics.archiveCopied(System.nanoTime() - copyStarted);
+            event.finish(entryName, archivedFile);
+            archived.incrementAndGet();
+            progress.archived();
+            LOG.info("📦 Archived changed file: {} → {}", entryName, archivedFile.getFileName());
+        }
+    }
+
+    /**
+     * Delete all previous archived versions of a file before saving the new one.
+     * Pattern: BaseName_TIMESTAMP.ext - the timestamp must be numeric so that archives of a
+     * different class sharing the prefix (e.g. Foo_Bar_123.cls for Foo) are left alone.
+     */
+    private static void deleteOldArchivedVersions(Path directory, String baseName, String extension) {
+        Pattern archived = Pattern.compile(Pattern.quote(baseName) + "_\\d+" + Pattern.quote(extension));
+        try (java.util.stream.Stream<Path> paths = Files.list(directory)) {
+            paths.filter(p -> archived.matcher(p.getFileName().toString()).matches())
+                .forEach(p -> {
+                    try {
+                        Files.delete(p);
+                        LOG.info("🗑️  Deleted old archived version: {}", p.getFileName());
+                    } catch (Exception e) {
+                        LOG.warn("Failed to delete old archived file {}: {}", p.getFileName(), e.getMessage());
+                    }
+                });
+        } catch (Exception e) {
+            LOG.error("Error deleting old archived versions: {}", e.getMessage());
+        }
+    }
+
+    private static String readSource(Path file) {
+        try {
+            return Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static final class WriterThreadFactory implements ThreadFactory {
+        private static final AtomicInteger SEQ = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "apex-extract-writer-" + SEQ.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
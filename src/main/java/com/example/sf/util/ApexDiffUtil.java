@@ -53,7 +53,7 @@ public class ApexDiffUtil {
      * Attempts to pretty-normalize Apex code for better diffing.
      * Adds line breaks around braces and semicolons where needed.
      */
-    private static String normalizeApex(String src) {
+    public static String normalizeApex(String src) {
         if (src == null) return "";
 
         // Fix Salesforce Metadata returning one huge line
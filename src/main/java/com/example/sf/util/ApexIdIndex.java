@@ -0,0 +1,69 @@
+package com.example.sf.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the flat {apexId}_{name}.cls files in one storage directory, mapping each
+ * apexId to its current file so lookups no longer list the directory.
+ */
+public class ApexIdIndex {
+
+    private final Path directory;
+    private final Map<String, Path> paths = new ConcurrentHashMap<>();
+
+    public ApexIdIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** apexId encoded in a stored file name, or null if the file is not an indexed class file. */
+    public static String apexIdOf(Path file) {
+        String name = file.getFileName().toString();
+        int sep = name.indexOf('_');
+        return sep > 0 && name.endsWith(".cls") ? name.substring(0, sep) : null;
+    }
+
+    /** Replace the index with the current directory listing. */
+    public void rebuild() throws IOException {
+        Map<String, Path> fresh = new ConcurrentHashMap<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(Files::isRegularFile).forEach(p -> {
+                    String apexId = apexIdOf(p);
+                    if (apexId != null) fresh.put(apexId, p);
+                });
+            }
+        }
+        paths.keySet().retainAll(fresh.keySet());
+        paths.putAll(fresh);
+    }
+
+    public Optional<Path> get(String apexId) {
+        return Optional.ofNullable(paths.get(apexId));
+    }
+
+    /** Record file as the current file of its apexId. */
+    public void put(Path file) {
+        String apexId = apexIdOf(file);
+        if (apexId != null) paths.put(apexId, directory.resolve(file.getFileName()));
+    }
+
+    /** Forget file, unless its apexId already points somewhere else. */
+    public void remove(Path file) {
+        String apexId = apexIdOf(file);
+        if (apexId != null) paths.remove(apexId, directory.resolve(file.getFileName()));
+    }
+
+    public int size() {
+        return paths.size();
+    }
+}
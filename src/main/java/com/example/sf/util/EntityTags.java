@@ -0,0 +1,63 @@
+package com.example.sf.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for conditional GETs with strong ETags.
+ *
+ * A gzip-encoded body is a different representation, so it gets its own strong tag: the
+ * identity tag with a "-gzip" suffix (as Apache httpd does). Servlet containers refuse to
+ * compress responses that carry a strong ETag, which is why callers gzip the body themselves.
+ */
+public class EntityTags {
+
+    private static final String GZIP_SUFFIX = "-gzip\"";
+
+    /** The tag of the gzip-encoded representation of etag. */
+    public static String gzipVariant(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX;
+    }
+
+    /**
+     * The tag of the representation an If-None-Match header names, etag or its gzip variant, or
+     * null if it names neither. A 304 has to repeat that tag: whether the cached body was gzipped
+     * depended on its size, not only on Accept-Encoding. GET uses the weak comparison, so W/
+     * prefixes are ignored; "*" matches the identity tag.
+     */
+    public static String matching(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return null;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return etag;
+            if (tag.equals(gzipVariant(etag))) return tag;
+        }
+        return null;
+    }
+
+    /** Whether an Accept-Encoding header allows gzip (an explicit q=0 refuses it). */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.sf.util;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Read-only class name to source map whose values are loaded on access, so large retrieves
+ * can report their classes without holding every source on the heap.
+ */
+public class LazySourceMap extends AbstractMap<String, String> {
+
+    private final Set<String> names;
+    private final Function<String, String> loader;
+
+    public LazySourceMap(Set<String> names, Function<String, String> loader) {
+        this.names = Collections.unmodifiableSet(names);
+        this.loader = loader;
+    }
+
+    @Override
+    public String get(Object key) {
+        return names.contains(key) ? loader.apply((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return names.contains(key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return names;
+    }
+
+    @Override
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                Iterator<String> it = names.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        String name = it.next();
+                        return new SimpleImmutableEntry<>(name, loader.apply(name));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.sf.util;
+
+import com.example.sf.model.ApexFileProperties;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (StAX) parser for listMetadata SOAP responses. Entries are read straight off the
+ * response stream into {@link ApexFileProperties}; the response is never held as a String.
+ * Values that repeat across entries (type, user names and ids, manageable state) share one
+ * String instance per parse.
+ */
+public class ListMetadataParser {
+
+    private static final XMLInputFactory FACTORY = newFactory();
+
+    private static final String[] FIELDS = {
+        "id", "fullName", "fileName", "type", "namespacePrefix", "manageableState",
+        "createdById", "createdByName", "createdDate", "lastModifiedById", "lastModifiedByName", "lastModifiedDate"
+    };
+    private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < FIELDS.length; i++) FIELD_INDEX.put(FIELDS[i], i);
+    }
+    /** Fields whose values are shared between entries, worth deduplicating. */
+    private static final boolean[] SHARED = {
+        false, false, false, true, true, true, true, true, false, true, true, false
+    };
+
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Parse every entry of the response. Entries are the {@code result} elements of a
+     * listMetadataResponse (also accepted under the {@code fileProperties} name).
+     */
+    public static List<ApexFileProperties> parse(InputStream in) throws XMLStreamException {
+        List<ApexFileProperties> out = new ArrayList<>();
+        Map<String, String> shared = new HashMap<>();
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            String[] values = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    if (event == XMLStreamConstants.END_ELEMENT && values != null && isEntry(reader.getLocalName())) {
+                        out.add(toProperties(values));
+                        values = null;
+                    }
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if (values == null) {
+                    if (isEntry(name)) values = new String[FIELDS.length];
+                    continue;
+                }
+                Integer field = FIELD_INDEX.get(name);
+                if (field != null) {
+                    String text = reader.getElementText().trim();
+                    values[field] = SHARED[field] ? shared.computeIfAbsent(text, t -> t) : text;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return out;
+    }
+
+    private static boolean isEntry(String localName) {
+        return "result".equals(localName) || "fileProperties".equals(localName);
+    }
+
+    private static ApexFileProperties toProperties(String[] v) {
+        return new ApexFileProperties(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.sf.util;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * OutputStream that keeps its content in memory until a byte budget is exceeded and then
+ * spills everything written so far (and all further writes) to a temp file.
+ *
+ * close() releases the buffer: the in-memory bytes are dropped and the spill file, if any, is deleted.
+ */
+public class SpillBuffer extends OutputStream {
+
+    private final long memoryBudget;
+    private final Path spillDir;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path file;
+    private OutputStream fileOut;
+    private long size;
+
+    public SpillBuffer(long memoryBudget, Path spillDir) {
+        this.memoryBudget = memoryBudget;
+        this.spillDir = spillDir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && size + len > memoryBudget) {
+            spill();
+        }
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    private void spill() throws IOException {
+        Files.createDirectories(spillDir);
+        file = Files.createTempFile(spillDir, "sf-retrieve-", ".spill");
+        fileOut = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) fileOut.flush();
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** Spill file location, or null while the content still fits in memory. */
+    public Path getFile() {
+        return file;
+    }
+
+    /** Open a fresh stream over everything written so far, from memory or from the spill file. */
+    public InputStream openInputStream() throws IOException {
+        if (file == null) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        }
+        fileOut.flush();
+        return new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+    }
+
+    /** Decode the in-memory content; only valid while the buffer has not spilled. */
+    public String toString(Charset charset) {
+        if (file != null) {
+            throw new IllegalStateException("Buffer spilled to " + file + "; read it with openInputStream()");
+        }
+        return memory.toString(charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        memory = null;
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
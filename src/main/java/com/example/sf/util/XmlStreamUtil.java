@@ -0,0 +1,92 @@
+package com.example.sf.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level helpers for scanning SOAP responses too large to hold as a String.
+ * Only suitable for ASCII markers such as element tags.
+ */
+public class XmlStreamUtil {
+
+    /**
+     * Advance the stream until just past the first occurrence of marker.
+     * Returns false if the stream ended before the marker was found.
+     */
+    public static boolean seekPast(InputStream in, String marker) throws IOException {
+        byte[] pattern = marker.getBytes(StandardCharsets.US_ASCII);
+        int[] fallback = new int[pattern.length];
+        for (int i = 1, k = 0; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) k = fallback[k - 1];
+            if (pattern[i] == pattern[k]) k++;
+            fallback[i] = k;
+        }
+
+        int matched = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            while (matched > 0 && b != pattern[matched]) matched = fallback[matched - 1];
+            if (b == pattern[matched]) matched++;
+            if (matched == pattern.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * View of the stream that ends at the next '<', i.e. the text content of the element
+     * the stream is currently positioned in. Reads ahead in chunks, so the position of the
+     * underlying stream is undefined afterwards; it is not closed.
+     */
+    public static InputStream elementText(InputStream in) {
+        return new FilterInputStream(in) {
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (ended) return -1;
+                if (len == 0) return 0;
+                int n = super.read(buf, off, len);
+                if (n == -1) {
+                    ended = true;
+                    return -1;
+                }
+                for (int i = off; i < off + n; i++) {
+                    if (buf[i] == '<') {
+                        ended = true;
+                        return i == off ? -1 : i - off;
+                    }
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                byte[] scratch = new byte[8192];
+                long skipped = 0;
+                int r;
+                while (skipped < n && (r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped))) != -1) {
+                    skipped += r;
+                }
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+                // leave the underlying stream open
+            }
+        };
+    }
+}
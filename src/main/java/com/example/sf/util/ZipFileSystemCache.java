@@ -0,0 +1,153 @@
+package com.example.sf.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Small LRU cache of ZIP archives mounted as jdk.zipfs file systems.
+ *
+ * Archives are keyed by path plus file identity, so a snapshot replaced by an atomic move is
+ * mounted afresh on the next open. Callers hold a {@link Lease} while reading; a mount that is
+ * evicted or superseded while leased is closed when its last lease is released.
+ */
+public class ZipFileSystemCache implements Closeable {
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Mount> mounts = new LinkedHashMap<>(16, 0.75f, true);
+
+    public ZipFileSystemCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** Mount (or reuse the mount of) the archive at zip. */
+    public synchronized Lease open(Path zip) throws IOException {
+        Path normalized = zip.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(normalized, BasicFileAttributes.class);
+        Key key = new Key(normalized, attrs.fileKey(), attrs.lastModifiedTime().toMillis(), attrs.size());
+
+        Mount mount = mounts.get(key);
+        if (mount == null) {
+            retire(entry -> entry.getKey().path.equals(normalized));
+            mount = new Mount(FileSystems.newFileSystem(normalized, Map.of()));
+            mounts.put(key, mount);
+            Iterator<Map.Entry<Key, Mount>> eldest = mounts.entrySet().iterator();
+            while (mounts.size() > capacity && eldest.hasNext()) {
+                Mount evicted = eldest.next().getValue();
+                eldest.remove();
+                evicted.retire();
+            }
+        }
+        mount.refs++;
+        return new Lease(this, mount);
+    }
+
+    /** Drop every mount of the archive at zip, e.g. after it was deleted or replaced. */
+    public synchronized void invalidate(Path zip) {
+        Path normalized = zip.toAbsolutePath().normalize();
+        retire(entry -> entry.getKey().path.equals(normalized));
+    }
+
+    private void retire(java.util.function.Predicate<Map.Entry<Key, Mount>> filter) {
+        Iterator<Map.Entry<Key, Mount>> it = mounts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Mount> entry = it.next();
+            if (filter.test(entry)) {
+                it.remove();
+                entry.getValue().retire();
+            }
+        }
+    }
+
+    private synchronized void release(Mount mount) {
+        mount.refs--;
+        if (mount.retired && mount.refs == 0) {
+            mount.closeQuietly();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        retire(entry -> true);
+    }
+
+    /** Open view of a mounted archive; close it when done reading. */
+    public static final class Lease implements Closeable {
+        private final ZipFileSystemCache cache;
+        private final Mount mount;
+        private boolean released;
+
+        private Lease(ZipFileSystemCache cache, Mount mount) {
+            this.cache = cache;
+            this.mount = mount;
+        }
+
+        public Path root() {
+            return mount.fs.getPath("/");
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                cache.release(mount);
+            }
+        }
+    }
+
+    private static final class Key {
+        final Path path;
+        final Object fileKey;
+        final long modified;
+        final long size;
+
+        Key(Path path, Object fileKey, long modified, long size) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return path.equals(k.path) && Objects.equals(fileKey, k.fileKey) && modified == k.modified && size == k.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, fileKey, modified, size);
+        }
+    }
+
+    private static final class Mount {
+        final FileSystem fs;
+        int refs;
+        boolean retired;
+
+        Mount(FileSystem fs) {
+            this.fs = fs;
+        }
+
+        void retire() {
+            retired = true;
+            if (refs == 0) closeQuietly();
+        }
+
+        void closeQuietly() {
+            try {
+                fs.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}